@@ -0,0 +1,245 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * {@link TaskScopeListener} which decouples the notification from the thread causing the lifecycle change. <br>
+ * Each change is published as {@link TaskScopeEvent} into a bounded lock-free ring buffer, and delivered in batches to
+ * a consumer by a background thread. The thread causing the change only pays for the publication, so this is suited
+ * for auditing or tracing without adding latency to every task hop.
+ * <p>
+ * If the buffer is full, the {@link OverflowPolicy} decides between losing events and slowing down the publishing
+ * threads. The batches are delivered sequentially, in the order the events were published.
+ * </p>
+ * <p>
+ * The background thread is a daemon thread, which is stopped by {@link #close()}.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#addListener(TaskScopeListener)
+ */
+public class AsyncTaskScopeListener implements TaskScopeListener, AutoCloseable {
+
+    /**
+     * Decides how events are handled, which are published while the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The published event is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest event in the buffer is dropped, to make room for the published event.
+         */
+        DROP_OLDEST,
+        /**
+         * The publishing thread waits until the buffer has room for the event. This slows down the tasks to the speed
+         * of the consumer.
+         */
+        BLOCK
+    }
+
+    /**
+     * The default capacity of the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * The default maximum amount of events delivered in a single batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncTaskScopeListener.class);
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    /**
+     * The time the background thread parks while the buffer is empty, before checking again. Publishers only wake the
+     * thread up if it is parked, so this bounds the delay of a missed wake up.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The time a publisher parks while the buffer is full, if the {@link OverflowPolicy#BLOCK} policy is used.
+     */
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final EventRingBuffer<TaskScopeEvent> buffer;
+
+    private final Consumer<? super List<TaskScopeEvent>> consumer;
+
+    private final int maxBatchSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * The amount of events lost due to the {@link #overflowPolicy} or due to being published after {@link #close()}.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread worker;
+
+    /**
+     * Flag indicating if the {@link #worker} is parked, or about to park, because the buffer is empty.
+     */
+    private volatile boolean waiting = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a listener with the {@link #DEFAULT_CAPACITY}, {@link #DEFAULT_BATCH_SIZE} and the {@link
+     * OverflowPolicy#DROP_NEWEST} policy.
+     *
+     * @param consumer receiving the batches of events
+     */
+    public AsyncTaskScopeListener(final Consumer<? super List<TaskScopeEvent>> consumer) {
+        this(consumer, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Creates a listener and starts its background thread.
+     *
+     * @param consumer       receiving the batches of events. The batch must not be used after the consumer returned
+     * @param capacity       the minimum capacity of the buffer, rounded up to the next power of two
+     * @param maxBatchSize   the maximum amount of events delivered in a single batch
+     * @param overflowPolicy deciding how events are handled while the buffer is full
+     *
+     * @throws IllegalArgumentException if {@code capacity} or {@code maxBatchSize} is not positive
+     */
+    public AsyncTaskScopeListener(final Consumer<? super List<TaskScopeEvent>> consumer, final int capacity,
+                                  final int maxBatchSize, final OverflowPolicy overflowPolicy) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, but was " + maxBatchSize);
+        }
+        this.consumer = Objects.requireNonNull(consumer, "consumer");
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+        this.buffer = new EventRingBuffer<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.worker = new Thread(this::deliver, "taskscoped-listener-" + THREAD_NUMBER.incrementAndGet());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Creates a consumer for the batches, which notifies {@code listener} about each event.
+     *
+     * @param listener to notify on the background thread
+     *
+     * @return consumer dispatching the events
+     */
+    public static Consumer<List<TaskScopeEvent>> dispatchingTo(final TaskScopeListener listener) {
+        Objects.requireNonNull(listener, "listener");
+        return batch -> batch.forEach(event -> event.dispatchTo(listener));
+    }
+
+    @Override
+    public void initialized(final TaskId taskId) {
+        publish(new TaskScopeEvent(TaskScopeEvent.Type.INITIALIZED, taskId));
+    }
+
+    @Override
+    public void entered(final TaskId taskId) {
+        publish(new TaskScopeEvent(TaskScopeEvent.Type.ENTERED, taskId));
+    }
+
+    @Override
+    public void exiting(final TaskId taskId) {
+        publish(new TaskScopeEvent(TaskScopeEvent.Type.EXITING, taskId));
+    }
+
+    @Override
+    public void destroyed(final TaskId taskId) {
+        publish(new TaskScopeEvent(TaskScopeEvent.Type.DESTROYED, taskId));
+    }
+
+    /**
+     * @return the amount of events which have not been delivered due to the {@link OverflowPolicy}, or as they were
+     *         published after this listener was closed
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the background thread, after all events published so far have been delivered. Events published
+     * afterwards are dropped. Blocks until the background thread has terminated, or the current thread is
+     * interrupted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(final TaskScopeEvent event) {
+        while (!closed) {
+            if (buffer.offer(event)) {
+                if (waiting) {
+                    LockSupport.unpark(worker);
+                }
+                return;
+            }
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    return;
+                case DROP_OLDEST:
+                    if (buffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case BLOCK:
+                    LockSupport.unpark(worker);
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown policy " + overflowPolicy);
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    private void deliver() {
+        final List<TaskScopeEvent> batch = new ArrayList<>(Math.min(maxBatchSize, buffer.capacity()));
+        while (true) {
+            // Read before draining, so that no event published before closing is lost
+            final boolean stop = closed;
+            if (buffer.drainTo(batch, maxBatchSize) > 0) {
+                dispatch(batch);
+                batch.clear();
+            } else if (stop) {
+                return;
+            } else {
+                waiting = true;
+                // Otherwise an event has been published before the publisher could see the waiting flag
+                if (buffer.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    private void dispatch(final List<TaskScopeEvent> batch) {
+        try {
+            consumer.accept(batch);
+        } catch (final RuntimeException e) {
+            LOG.warn("Could not deliver {} task scope events", batch.size(), e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for any amount of producers and consumers, backed by a ring buffer.
+ * <p>
+ * Each slot carries a sequence number, which tells producers and consumers whether the slot is free for the current lap
+ * of the ring. Producers and consumers claim a position by a single CAS and never wait for each other, so a full or
+ * empty buffer is reported immediately instead of blocking.
+ * </p>
+ *
+ * @param <E> type of the elements
+ *
+ * @author Fritz Lumnitz
+ */
+final class EventRingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * The sequence of each slot. A slot is free for the producer at position {@code p} if its sequence is {@code p},
+     * and filled for the consumer at position {@code p} if its sequence is {@code p + 1}.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The position of the next element to offer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position of the next element to poll.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity the minimum capacity, rounded up to the next power of two
+     */
+    EventRingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30, but was " + capacity);
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param element to add
+     *
+     * @return {@code true} if the element was added, {@code false} if the buffer is full
+     */
+    boolean offer(final E element) {
+        Objects.requireNonNull(element, "element");
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the element of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element, {@code null} if the buffer is empty
+     */
+    E poll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    // Frees the slot for the producer of the next lap
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Polls up to {@code maxElements} elements into {@code target}.
+     *
+     * @param target      to add the elements to
+     * @param maxElements the maximum amount of elements to poll
+     *
+     * @return the amount of polled elements
+     */
+    int drainTo(final List<? super E> target, final int maxElements) {
+        int count = 0;
+        E element;
+        while (count < maxElements && (element = poll()) != null) {
+            target.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return {@code true} if no element is currently contained
+     */
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return the capacity of the buffer
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
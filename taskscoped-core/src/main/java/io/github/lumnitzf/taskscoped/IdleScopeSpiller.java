@@ -0,0 +1,145 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spills the {@link Spillable} contextual instances of idle TaskScopes into a {@link MappedSpillStore}, for the
+ * {@link TaskScopeEngine#enableSpilling(Path, int, long, TimeUnit) spilling} of a {@link TaskScopeEngine}.
+ *
+ * @author Fritz Lumnitz
+ */
+final class IdleScopeSpiller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdleScopeSpiller.class);
+
+    /**
+     * The contextual instances of each created TaskScope, owned by the engine. Accesses to this map and the idle state
+     * of its values must be synchronized using {@link TaskId#lock}.
+     */
+    private final Map<TaskId, TaskScopeInstances> scopeInstances;
+
+    /**
+     * The store idle TaskScopes are spilled to, {@code null} if spilling is disabled.
+     */
+    private volatile MappedSpillStore store;
+
+    /**
+     * Executes the spilling of idle TaskScopes, {@code null} if spilling is disabled.
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * The time in nanoseconds a TaskScope must be idle before it is spilled.
+     */
+    private volatile long spillAfterNanos;
+
+    /**
+     * @param scopeInstances the contextual instances of each created TaskScope
+     */
+    IdleScopeSpiller(final Map<TaskId, TaskScopeInstances> scopeInstances) {
+        this.scopeInstances = Objects.requireNonNull(scopeInstances, "scopeInstances");
+    }
+
+    /**
+     * @param file        the file to map
+     * @param capacity    the capacity of the file in bytes
+     * @param idleTimeout the time a TaskScope must be idle before it is spilled
+     * @param unit        the time unit of the idle timeout
+     *
+     * @throws IOException           if the file cannot be mapped
+     * @throws IllegalStateException if spilling is already enabled
+     */
+    synchronized void enable(final Path file, final int capacity, final long idleTimeout, final TimeUnit unit)
+            throws IOException {
+        Objects.requireNonNull(unit, "unit");
+        if (store != null) {
+            throw new IllegalStateException("Spilling is already enabled");
+        }
+        spillAfterNanos = unit.toNanos(idleTimeout);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "taskscoped-spill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        store = new MappedSpillStore(file, capacity);
+        LOG.info("Spilling task scopes idle for {} {} to {}", idleTimeout, unit, file);
+    }
+
+    /**
+     * Restores all spilled instances, stops the scheduler and closes the store. Does nothing if spilling is not
+     * enabled.
+     */
+    synchronized void disable() {
+        final MappedSpillStore current = store;
+        if (current == null) {
+            return;
+        }
+        // No TaskScope is spilled once the scheduler is gone, see spillIfIdle()
+        final ScheduledExecutorService stopped = scheduler;
+        scheduler = null;
+        stopped.shutdownNow();
+        scopeInstances.forEach((taskId, instances) -> {
+            synchronized (taskId.lock) {
+                instances.restore(current);
+            }
+        });
+        store = null;
+        try {
+            current.close();
+        } catch (final IOException e) {
+            LOG.warn("Could not close spill store", e);
+        }
+        LOG.info("Disabled spilling of task scopes");
+    }
+
+    /**
+     * @return the store idle TaskScopes are spilled to, {@code null} if spilling is disabled
+     */
+    MappedSpillStore store() {
+        return store;
+    }
+
+    /**
+     * Schedules the spilling of the TaskScope identified by {@code taskId}, which must not be entered by any thread.
+     * The TaskScope is only spilled, if it is still idle once the idle timeout has elapsed. Must be called while
+     * synchronized using {@link TaskId#lock}.
+     *
+     * @param taskId    identifying the TaskScope
+     * @param instances the contextual instances of the TaskScope
+     */
+    void scheduleIfIdle(final TaskId taskId, final TaskScopeInstances instances) {
+        final ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            return;
+        }
+        final long generation = instances.markIdle();
+        if (generation >= 0) {
+            try {
+                current.schedule(() -> spillIfIdle(taskId, instances, generation), spillAfterNanos,
+                        TimeUnit.NANOSECONDS);
+            } catch (final RejectedExecutionException e) {
+                // Spilling has been disabled in the meantime
+            }
+        }
+    }
+
+    private void spillIfIdle(final TaskId taskId, final TaskScopeInstances instances, final long generation) {
+        synchronized (taskId.lock) {
+            // Otherwise the scope has been entered or destroyed, or spilling has been disabled in the meantime
+            if (scheduler != null && scopeInstances.get(taskId) == instances && instances.isIdleSince(generation)) {
+                final int spilled = instances.spill(store);
+                LOG.debug("Spilled {} instances of idle task {}", spilled, taskId);
+            }
+        }
+    }
+}
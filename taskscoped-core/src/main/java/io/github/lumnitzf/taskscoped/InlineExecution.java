@@ -0,0 +1,61 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Decides which submitted tasks are run inline by the submitting thread, for the {@link
+ * TaskScopeEngine#setInlinePolicy(InlinePolicy) inline policy} of a {@link TaskScopeEngine}.
+ *
+ * @author Fritz Lumnitz
+ */
+final class InlineExecution {
+
+    /**
+     * Tests if the TaskScope identified by a {@link TaskId} has been cancelled.
+     */
+    private final Predicate<TaskId> cancelled;
+
+    /**
+     * Decides which tasks are run inline by the submitting thread, {@code null} if all tasks are handed over.
+     */
+    private volatile InlinePolicy policy;
+
+    /**
+     * @param cancelled tests if the TaskScope identified by a {@link TaskId} has been cancelled
+     */
+    InlineExecution(final Predicate<TaskId> cancelled) {
+        this.cancelled = Objects.requireNonNull(cancelled, "cancelled");
+    }
+
+    /**
+     * @return the policy, {@code null} if disabled
+     */
+    InlinePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param policy the policy, {@code null} to hand over all tasks
+     */
+    void setPolicy(final InlinePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @param entered  the TaskId of the TaskScope entered by the current thread, {@code null} if none is entered
+     * @param task     the submitted task
+     * @param delegate the pool the task would be handed over to
+     *
+     * @return {@code true} if the task should be run inline by the current thread
+     */
+    boolean runsInline(final TaskId entered, final Object task, final Executor delegate) {
+        final InlinePolicy current = policy;
+        if (current == null) {
+            return false;
+        }
+        // Inline tasks neither register nor enter, so only an entered TaskScope is guaranteed to exist meanwhile
+        return entered != null && !cancelled.test(entered) && current.runInline(task, delegate);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Decides whether a task submitted to a task preserving executor is run inline by the submitting thread, instead of
+ * being handed over to the pool. <br>
+ * The submitting thread is already inside the TaskScope, so an inline task neither needs to be registered nor to enter
+ * the TaskScope again. For tasks which only take microseconds, or while the pool is saturated, this avoids the
+ * queueing delay and the TaskScope handling of the hop to a different thread.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#setInlinePolicy(InlinePolicy)
+ */
+@FunctionalInterface
+public interface InlinePolicy {
+
+    /**
+     * Only invoked if the submitting thread is inside a TaskScope.
+     *
+     * @param task     the submitted {@link Runnable} or {@link java.util.concurrent.Callable}
+     * @param delegate the pool the task would be handed over to
+     *
+     * @return {@code true} if the task should be run inline by the submitting thread
+     */
+    boolean runInline(Object task, Executor delegate);
+
+    /**
+     * @return policy running tasks inline, which are marked as {@link TrivialTask}
+     */
+    static InlinePolicy trivialTasks() {
+        return (task, delegate) -> task instanceof TrivialTask;
+    }
+
+    /**
+     * Creates a policy running tasks inline, while at least {@code depth} tasks are queued for the pool. The queue
+     * depth is only known for {@link ThreadPoolExecutor} and {@link ForkJoinPool}, tasks for other pools are never
+     * run inline by this policy.
+     *
+     * @param depth the minimum amount of queued tasks
+     *
+     * @return policy running tasks inline, while the pool is saturated
+     *
+     * @throws IllegalArgumentException if {@code depth} is not positive
+     */
+    static InlinePolicy whenQueuedAtLeast(final int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive, but was " + depth);
+        }
+        return (task, delegate) -> {
+            if (delegate instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) delegate).getQueue().size() >= depth;
+            }
+            if (delegate instanceof ForkJoinPool) {
+                return ((ForkJoinPool) delegate).getQueuedSubmissionCount() >= depth;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * @param other policy to combine with
+     *
+     * @return policy running a task inline, if this or the {@code other} policy does
+     */
+    default InlinePolicy or(final InlinePolicy other) {
+        Objects.requireNonNull(other, "other");
+        return (task, delegate) -> runInline(task, delegate) || other.runInline(task, delegate);
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Off-heap storage for serialized contextual instances, backed by a memory-mapped file of fixed capacity.
+ * <p>
+ * Space is allocated sequentially. Freed space is only reused once every stored region has been freed, which is
+ * sufficient for instances which are restored in roughly the order they were spilled. If the capacity is exhausted,
+ * {@link #write(byte[])} rejects further data, which then simply stays on the heap.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#enableSpilling(Path, int, long, java.util.concurrent.TimeUnit)
+ */
+class MappedSpillStore implements Closeable {
+
+    /**
+     * The channel of the mapped file. The file is deleted once the channel is closed.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The mapped content of the file. Accesses must be synchronized using this store.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The position of the next region to write.
+     */
+    private int position = 0;
+
+    /**
+     * The amount of bytes in regions which have not been freed yet.
+     */
+    private int live = 0;
+
+    MappedSpillStore(final Path file, final int capacity) throws IOException {
+        Objects.requireNonNull(file, "file");
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, but was " + capacity);
+        }
+        this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE, DELETE_ON_CLOSE);
+        // The store is kept until the JVM terminates, unless spilling is disabled
+        file.toFile().deleteOnExit();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Writes the {@code data} into a new region.
+     *
+     * @param data to write
+     *
+     * @return the region containing the data, {@code null} if the remaining capacity is too small
+     */
+    synchronized Region write(final byte[] data) {
+        if (buffer.capacity() - position < data.length) {
+            return null;
+        }
+        final Region region = new Region(position, data.length);
+        ((ByteBuffer) buffer.duplicate().position(position)).put(data);
+        position += data.length;
+        live += data.length;
+        return region;
+    }
+
+    /**
+     * @param region to read
+     *
+     * @return a copy of the data of the region
+     */
+    synchronized byte[] read(final Region region) {
+        final byte[] data = new byte[region.length];
+        ((ByteBuffer) buffer.duplicate().position(region.offset)).get(data);
+        return data;
+    }
+
+    /**
+     * Frees the {@code region}, which must not be accessed afterwards.
+     *
+     * @param region to free
+     */
+    synchronized void free(final Region region) {
+        live -= region.length;
+        if (live == 0) {
+            position = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A region of the store containing data of one {@link #write(byte[])}.
+     */
+    static final class Region {
+
+        private final int offset;
+
+        private final int length;
+
+        private Region(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incrementally maintained estimate of the heap usage of instances, for the {@link TaskScopeEngine#setMemoryBudget(long,
+ * long) memory accounting} of a TaskScope. Instances implementing {@link MemoryFootprint} are accounted with the size
+ * they report when being added, all others are only counted, so the default size may change at any time.
+ * <p>
+ * Reading the estimate is lock free.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+class MemoryAccount {
+
+    /**
+     * The value returned by {@link #add(Object)} for instances not implementing {@link MemoryFootprint}.
+     */
+    static final long DEFAULT_SIZE = -1;
+
+    /**
+     * The sum of the sizes reported by the accounted {@link MemoryFootprint} instances.
+     */
+    private final AtomicLong footprintBytes = new AtomicLong();
+
+    /**
+     * The amount of accounted instances not implementing {@link MemoryFootprint}.
+     */
+    private final AtomicInteger defaultSized = new AtomicInteger();
+
+    /**
+     * @param instance to be accounted
+     *
+     * @return the accounted size, to be passed to {@link #remove(long)}, or {@link #DEFAULT_SIZE}
+     */
+    long add(final Object instance) {
+        if (instance instanceof MemoryFootprint) {
+            final long bytes = Math.max(0, ((MemoryFootprint) instance).estimatedBytes());
+            footprintBytes.addAndGet(bytes);
+            return bytes;
+        }
+        defaultSized.incrementAndGet();
+        return DEFAULT_SIZE;
+    }
+
+    /**
+     * @param size the size returned by {@link #add(Object)} for the removed instance
+     */
+    void remove(final long size) {
+        if (size == DEFAULT_SIZE) {
+            defaultSized.decrementAndGet();
+        } else {
+            footprintBytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * Removes all accounted instances.
+     */
+    void clear() {
+        footprintBytes.set(0);
+        defaultSized.set(0);
+    }
+
+    /**
+     * @param defaultBytes the size of instances not implementing {@link MemoryFootprint}
+     *
+     * @return the estimated amount of heap bytes retained by the accounted instances
+     */
+    long estimatedBytes(final long defaultBytes) {
+        return footprintBytes.get() + defaultSized.get() * defaultBytes;
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Limits the estimated heap usage of each TaskScope, for the {@link TaskScopeEngine#setMemoryBudget(long, long)
+ * memory accounting} of a {@link TaskScopeEngine}.
+ *
+ * @author Fritz Lumnitz
+ */
+final class MemoryBudget {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryBudget.class);
+
+    /**
+     * Estimates the heap bytes retained by the TaskScope identified by a {@link TaskId}.
+     */
+    private final ToLongFunction<TaskId> estimator;
+
+    /**
+     * The estimated heap bytes a single TaskScope may retain, before further tasks are rejected, {@code 0} if
+     * disabled.
+     */
+    private volatile long budget = 0;
+
+    /**
+     * The estimated heap bytes of each instance and registration not implementing {@link MemoryFootprint}.
+     */
+    private volatile long defaultInstanceBytes = 0;
+
+    /**
+     * The amount of tasks rejected, because their TaskScope exceeded the {@link #budget}.
+     */
+    private final AtomicLong violations = new AtomicLong();
+
+    /**
+     * @param estimator estimates the heap bytes retained by the TaskScope identified by a {@link TaskId}
+     */
+    MemoryBudget(final ToLongFunction<TaskId> estimator) {
+        this.estimator = Objects.requireNonNull(estimator, "estimator");
+    }
+
+    /**
+     * @param budget               the estimated heap bytes a single TaskScope may retain, {@code 0} to disable the
+     *                             accounting
+     * @param defaultInstanceBytes the estimated heap bytes of instances not implementing {@link MemoryFootprint}
+     *
+     * @throws IllegalArgumentException if {@code budget} or {@code defaultInstanceBytes} is negative
+     */
+    void set(final long budget, final long defaultInstanceBytes) {
+        if (budget < 0 || defaultInstanceBytes < 0) {
+            throw new IllegalArgumentException("budget and defaultInstanceBytes must not be negative, but were "
+                    + budget + " and " + defaultInstanceBytes);
+        }
+        this.defaultInstanceBytes = defaultInstanceBytes;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the estimated heap bytes a single TaskScope may retain, {@code 0} if disabled
+     */
+    long get() {
+        return budget;
+    }
+
+    /**
+     * @return the estimated heap bytes of instances not implementing {@link MemoryFootprint}
+     */
+    long defaultInstanceBytes() {
+        return defaultInstanceBytes;
+    }
+
+    /**
+     * @return the amount of tasks rejected so far, because their TaskScope exceeded the budget
+     */
+    long violationCount() {
+        return violations.get();
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     *
+     * @throws RejectedExecutionException if the TaskScope exceeds the budget
+     */
+    void check(final TaskId taskId) {
+        final long current = budget;
+        if (current == 0) {
+            return;
+        }
+        final long bytes = estimator.applyAsLong(taskId);
+        if (bytes > current) {
+            violations.incrementAndGet();
+            LOG.warn("Rejecting task for task {}, which retains an estimated {} bytes exceeding its budget of {} "
+                    + "bytes", taskId, bytes, current);
+            throw new RejectedExecutionException(
+                    "Task " + taskId + " exceeds its memory budget of " + current + " bytes with " + bytes + " bytes");
+        }
+    }
+}
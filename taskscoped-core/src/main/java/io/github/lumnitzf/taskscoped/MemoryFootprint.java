@@ -0,0 +1,20 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * Implemented by instances stored in a TaskScope, e.g. {@code @TaskScoped} beans or values of {@link
+ * TaskLocal TaskLocals}, to report their heap usage for the {@link TaskScopeEngine#setMemoryBudget(long, long) memory
+ * accounting}. Instances not implementing this interface are accounted with a default size.
+ *
+ * @author Fritz Lumnitz
+ */
+public interface MemoryFootprint {
+
+    /**
+     * Invoked once the instance is added to a TaskScope, or restored after being spilled. The reported size is
+     * accounted until the instance is removed again, so it should include the heap the instance is expected to
+     * retain while being in the TaskScope.
+     *
+     * @return the estimated amount of heap bytes retained by this instance
+     */
+    long estimatedBytes();
+}
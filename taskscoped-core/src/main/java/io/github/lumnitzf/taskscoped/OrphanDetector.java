@@ -0,0 +1,182 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Releases the registrations of task preserving tasks, which became unreachable without being executed, for the
+ * {@link TaskScopeEngine#setOrphanDetection(boolean) orphan detection} of a {@link TaskScopeEngine}.
+ *
+ * @author Fritz Lumnitz
+ */
+final class OrphanDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrphanDetector.class);
+
+    /**
+     * Removes a registration of a TaskScope.
+     */
+    private final BiConsumer<TaskId, Object> unregister;
+
+    /**
+     * Flag indicating if the registrations of task preserving tasks track the reachability of the tasks.
+     */
+    private volatile boolean enabled = false;
+
+    /**
+     * Receives the {@link OrphanRegistration registrations} of tasks, which became unreachable without being executed.
+     */
+    private final ReferenceQueue<Object> orphans = new ReferenceQueue<>();
+
+    /**
+     * The amount of registrations released, because their tasks became unreachable without being executed.
+     */
+    private final AtomicLong releasedOrphans = new AtomicLong();
+
+    /**
+     * The daemon thread releasing the registrations of unreachable tasks, {@code null} if the detection is disabled.
+     * Accesses must be synchronized using this instance.
+     */
+    private Thread releaser;
+
+    /**
+     * @param unregister removes a registration of a TaskScope
+     */
+    OrphanDetector(final BiConsumer<TaskId, Object> unregister) {
+        this.unregister = Objects.requireNonNull(unregister, "unregister");
+    }
+
+    /**
+     * @param enabled {@code true} to detect orphaned tasks
+     */
+    synchronized void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        if (enabled && releaser == null) {
+            releaser = new Thread(this::releaseOrphansUntilInterrupted, "taskscoped-orphans");
+            releaser.setDaemon(true);
+            releaser.start();
+        } else if (!enabled && releaser != null) {
+            releaser.interrupt();
+            releaser = null;
+        }
+    }
+
+    /**
+     * @return {@code true} if orphaned tasks are detected
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the amount of registrations released so far, because their tasks became unreachable without being
+     *         executed
+     */
+    long releasedCount() {
+        return releasedOrphans.get();
+    }
+
+    /**
+     * Creates the registration of a task preserving task. If the detection is enabled, the registration does not keep
+     * the {@code task} reachable.
+     *
+     * @param taskId identifying the TaskScope
+     * @param task   to be registered
+     *
+     * @return the registration
+     */
+    PendingWork track(final TaskId taskId, final PendingWork task) {
+        return enabled ? new OrphanRegistration(task, taskId, orphans) : task;
+    }
+
+    /**
+     * Stops tracking the reachability of the task of a registration returned by {@link #track(TaskId, PendingWork)},
+     * as the task has been executed.
+     *
+     * @param registration to stop tracking
+     */
+    void untrack(final PendingWork registration) {
+        if (registration instanceof OrphanRegistration) {
+            ((OrphanRegistration) registration).clear();
+        }
+    }
+
+    /**
+     * Releases the registrations of all tasks, which have been found unreachable by the garbage collector so far.
+     *
+     * @return the amount of released registrations
+     */
+    int releaseOrphans() {
+        int released = 0;
+        Reference<?> reference;
+        while ((reference = orphans.poll()) != null) {
+            release((OrphanRegistration) reference);
+            released++;
+        }
+        return released;
+    }
+
+    /**
+     * Blocks on the queue of unreachable tasks, and releases their registrations until interrupted.
+     */
+    private void releaseOrphansUntilInterrupted() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final OrphanRegistration orphan = (OrphanRegistration) orphans.remove();
+                try {
+                    release(orphan);
+                } catch (final RuntimeException e) {
+                    LOG.error("Could not release orphaned task {}", orphan.taskId, e);
+                }
+            }
+        } catch (final InterruptedException e) {
+            // The detection has been disabled
+            LOG.debug("Stopped releasing orphaned tasks");
+        }
+    }
+
+    private void release(final OrphanRegistration orphan) {
+        LOG.warn("Releasing {} of task {}, which became unreachable without being executed", orphan.taskType,
+                orphan.taskId);
+        releasedOrphans.incrementAndGet();
+        unregister.accept(orphan.taskId, orphan);
+    }
+
+    /**
+     * Registration of a task preserving task, which does not keep the task reachable. Enqueued once the task has
+     * become unreachable without being executed.
+     */
+    private static final class OrphanRegistration extends PhantomReference<Object> implements PendingWork {
+
+        private final TaskId taskId;
+
+        private final String taskType;
+
+        private volatile boolean cancelled;
+
+        private OrphanRegistration(final Object task, final TaskId taskId, final ReferenceQueue<Object> queue) {
+            super(task, queue);
+            this.taskId = taskId;
+            this.taskType = task.getClass().getName();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            // Not registered anymore, so it must not be released as orphan
+            clear();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * Implemented by the instances {@link TaskScopeEngine#register(TaskId, Object) registered} for work still to be done
+ * inside a TaskScope, e.g. submitted tasks or outstanding I/O operations. Once the TaskScope is {@link
+ * TaskScopeEngine#cancel(TaskId, boolean) cancelled}, all its pending work is unregistered and cancelled, so that it
+ * does not keep the TaskScope alive anymore.
+ *
+ * @author Fritz Lumnitz
+ */
+interface PendingWork {
+
+    /**
+     * Invoked once the TaskScope is cancelled, after this instance has been unregistered, while synchronized using the
+     * {@link TaskId#lock}. Also invoked instead of registering this instance for an already cancelled TaskScope. The
+     * work must not enter the TaskScope afterwards, as it would be created again.
+     */
+    void cancel();
+
+    /**
+     * @return {@code true} if this work has been {@link #cancel() cancelled}
+     */
+    boolean isCancelled();
+}
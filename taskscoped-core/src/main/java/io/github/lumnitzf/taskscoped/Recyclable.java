@@ -0,0 +1,22 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * Implemented by {@code @TaskScoped} beans, which may be reused by later TaskScopes instead of being destroyed. <br>
+ * When its TaskScope is destroyed, a recyclable instance is {@link #recycle() reset} and kept in a bounded pool. The
+ * next TaskScope requiring the bean takes the instance from the pool, without creating, injecting or initializing a
+ * new one. Instances which do not fit into the pool are destroyed as usual.
+ * <p>
+ * The injected dependencies of a recycled instance are reused as well, so only beans whose dependencies are not bound
+ * to a single TaskScope should be recyclable, e.g. beans holding request state in plain fields.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+public interface Recyclable {
+
+    /**
+     * Resets this instance to the state of a newly created one. Invoked when its TaskScope is destroyed, by the thread
+     * destroying it. If this method throws an exception, the instance is destroyed instead.
+     */
+    void recycle();
+}
@@ -0,0 +1,105 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free pool of {@link Recyclable recycled} instances.
+ * <p>
+ * The pooled instances are stored in an array of slots, which is searched starting at a position derived from the
+ * current thread. Threads therefore usually claim different slots, instead of contending on a single head like in a
+ * queue. The pool is neither fair nor ordered.
+ * </p>
+ *
+ * @param <E> type of the pooled elements
+ *
+ * @author Fritz Lumnitz
+ */
+final class RecyclingPool<E> {
+
+    private final AtomicReferenceArray<E> slots;
+
+    /**
+     * The approximate amount of pooled elements, to skip searching an empty or full pool.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param capacity the maximum amount of pooled elements
+     */
+    RecyclingPool(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, but was " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @param element to pool
+     *
+     * @return {@code true} if the element was pooled, {@code false} if the pool is full
+     */
+    boolean offer(final E element) {
+        final int capacity = slots.length();
+        if (size.get() >= capacity) {
+            return false;
+        }
+        final int start = start(capacity);
+        for (int i = 0; i < capacity; i++) {
+            final int index = (start + i) % capacity;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, element)) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a pooled element, {@code null} if the pool is empty
+     */
+    E poll() {
+        if (size.get() <= 0) {
+            return null;
+        }
+        final int capacity = slots.length();
+        final int start = start(capacity);
+        for (int i = 0; i < capacity; i++) {
+            final int index = (start + i) % capacity;
+            final E element = slots.get(index);
+            if (element != null && slots.compareAndSet(index, element, null)) {
+                size.decrementAndGet();
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the maximum amount of pooled elements
+     */
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Removes all pooled elements.
+     *
+     * @return the removed elements
+     */
+    List<E> drain() {
+        final List<E> drained = new ArrayList<>();
+        E element;
+        while ((element = poll()) != null) {
+            drained.add(element);
+        }
+        return drained;
+    }
+
+    private static int start(final int capacity) {
+        // Spreads consecutive thread ids over the slots
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 33) % capacity;
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the TaskScopes of a {@link TaskScopeEngine} alive for other processes, for the {@link
+ * TaskScopeEngine#registerRemote(TaskId) remote registrations} and the {@link TaskScopeEngine#export(TaskId,
+ * ByteBuffer) export} and {@link TaskScopeEngine#attach(ByteBuffer) attachment} of TaskScopes.
+ *
+ * @author Fritz Lumnitz
+ */
+final class RemoteRegistrations {
+
+    /**
+     * The engine the remote registrations are {@link TaskScopeEngine#register(TaskId, Object) registered} at.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * Keeps track of the amount of remote registrations for a {@link TaskId}. While the amount is positive, the
+     * counter itself is registered. Accesses to this map and its value must be synchronized using {@link TaskId#lock}.
+     */
+    private final Map<TaskId, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    /**
+     * The canonical {@link TaskId} instances of all TaskIds which have been exported or attached, as long as the
+     * TaskScope is known. Ensures that decoding the same value always results in the same instance, and therefore the
+     * same {@link TaskId#lock}. Entries are only removed while synchronized using the {@link TaskId#lock} of the value.
+     */
+    private final Map<UUID, TaskId> canonicalTaskIds = new ConcurrentHashMap<>();
+
+    /**
+     * @param engine the engine the remote registrations are registered at
+     */
+    RemoteRegistrations(final TaskScopeEngine engine) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     */
+    void register(final TaskId taskId) {
+        Objects.requireNonNull(taskId, "taskId");
+        synchronized (taskId.lock) {
+            final AtomicInteger count = counts.computeIfAbsent(taskId, ignored -> new AtomicInteger(0));
+            if (count.getAndIncrement() == 0) {
+                engine.register(taskId, count);
+            }
+        }
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     *
+     * @throws IllegalStateException if no remote registration is present for the TaskScope
+     */
+    void unregister(final TaskId taskId) {
+        Objects.requireNonNull(taskId, "taskId");
+        final AtomicInteger count;
+        synchronized (taskId.lock) {
+            count = counts.get(taskId);
+            if (count == null) {
+                throw new IllegalStateException("No remote registration for task " + taskId);
+            }
+            if (count.decrementAndGet() > 0) {
+                return;
+            }
+            counts.remove(taskId);
+        }
+        engine.unregister(taskId, count);
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     * @param target buffer to write the {@link TaskId#BYTES} bytes of the TaskId to
+     */
+    void export(final TaskId taskId, final ByteBuffer target) {
+        Objects.requireNonNull(taskId, "taskId");
+        Objects.requireNonNull(target, "target");
+        if (target.remaining() < TaskId.BYTES) {
+            throw new BufferOverflowException();
+        }
+        synchronized (taskId.lock) {
+            canonicalTaskIds.putIfAbsent(taskId.getValue(), taskId);
+            register(taskId);
+        }
+        taskId.writeTo(target);
+    }
+
+    /**
+     * @param source buffer to read the {@link TaskId#BYTES} bytes of the TaskId from
+     *
+     * @throws IllegalStateException if the TaskScope has not been exported
+     */
+    void release(final ByteBuffer source) {
+        Objects.requireNonNull(source, "source");
+        final UUID value = new UUID(source.getLong(), source.getLong());
+        final TaskId taskId = canonicalTaskIds.get(value);
+        if (taskId == null) {
+            throw new IllegalStateException("Task was not exported: " + value);
+        }
+        unregister(taskId);
+    }
+
+    /**
+     * @param source buffer to read the {@link TaskId#BYTES} bytes of the TaskId from
+     *
+     * @return the local TaskId
+     */
+    TaskId attach(final ByteBuffer source) {
+        Objects.requireNonNull(source, "source");
+        final UUID value = new UUID(source.getLong(), source.getLong());
+        while (true) {
+            final TaskId taskId = canonicalTaskIds.computeIfAbsent(value, TaskId::valueOf);
+            synchronized (taskId.lock) {
+                // Otherwise the scope was destroyed since retrieving the canonical instance
+                if (canonicalTaskIds.get(value) == taskId) {
+                    register(taskId);
+                    return taskId;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the canonical instance of the TaskId of a TaskScope, which is not known to the engine anymore. Must be
+     * called while synchronized using {@link TaskId#lock}.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    void forget(final TaskId taskId) {
+        canonicalTaskIds.remove(taskId.getValue(), taskId);
+    }
+}
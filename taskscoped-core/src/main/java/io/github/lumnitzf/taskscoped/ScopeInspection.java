@@ -0,0 +1,94 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the diagnostic information of the TaskScopes of a {@link TaskScopeEngine}, for its {@link
+ * TaskScopeEngine#inspect() inspection}.
+ *
+ * @author Fritz Lumnitz
+ */
+final class ScopeInspection {
+
+    /**
+     * The creation of 1 in this amount of TaskScopes records the stack of the creating thread, {@code 0} if disabled.
+     */
+    private volatile int creationSampling = 0;
+
+    /**
+     * The age in nanoseconds, after which a TaskScope is considered a suspected leak, {@code 0} if disabled.
+     */
+    private volatile long leakThresholdNanos = 0;
+
+    /**
+     * @return the amount of TaskScopes, of which 1 records its creation stack, {@code 0} if disabled
+     */
+    int getCreationSampling() {
+        return creationSampling;
+    }
+
+    /**
+     * @param oneIn the amount of TaskScopes, of which 1 records its creation stack, {@code 0} to disable the sampling
+     *
+     * @throws IllegalArgumentException if {@code oneIn} is negative
+     */
+    void setCreationSampling(final int oneIn) {
+        if (oneIn < 0) {
+            throw new IllegalArgumentException("oneIn must not be negative, but was " + oneIn);
+        }
+        this.creationSampling = oneIn;
+    }
+
+    /**
+     * @param threshold the age, {@code 0} to disable the flagging
+     * @param unit      the time unit of {@code threshold}
+     *
+     * @throws IllegalArgumentException if {@code threshold} is negative
+     */
+    void setLeakThreshold(final long threshold, final TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative, but was " + threshold);
+        }
+        this.leakThresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * @param unit the time unit of the result
+     *
+     * @return the age, after which a TaskScope is flagged as suspected leak, {@code 0} if disabled
+     */
+    long getLeakThreshold(final TimeUnit unit) {
+        return unit.convert(leakThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the stack of the current thread if the TaskScope it creates is sampled, {@code null} otherwise
+     */
+    StackTraceElement[] sampleCreationStack() {
+        final int sampling = creationSampling;
+        if (sampling == 0 || ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return null;
+        }
+        return new Throwable().getStackTrace();
+    }
+
+    /**
+     * @param taskId         identifying the TaskScope
+     * @param instances      the contextual instances of the TaskScope
+     * @param running        the amount of threads inside the TaskScope
+     * @param registered     the amount of instances registered for the TaskScope
+     * @param estimatedBytes the estimated heap bytes retained by the TaskScope
+     *
+     * @return the state of the TaskScope
+     */
+    TaskScopeInfo info(final TaskId taskId, final TaskScopeInstances instances, final int running,
+                       final int registered, final long estimatedBytes) {
+        final long threshold = leakThresholdNanos;
+        return new TaskScopeInfo(taskId, instances.created(), instances.age(), running, registered,
+                instances.instanceTypes(), instances.creationStack(), estimatedBytes,
+                threshold > 0 && instances.age().toNanos() > threshold);
+    }
+}
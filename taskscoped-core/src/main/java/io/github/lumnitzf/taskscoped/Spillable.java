@@ -0,0 +1,26 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.io.Serializable;
+
+/**
+ * Implemented by {@code @TaskScoped} beans, which may be moved off the heap while their TaskScope is idle, once
+ * {@link TaskScopeEngine#enableSpilling(java.nio.file.Path, int, long, java.util.concurrent.TimeUnit) spilling} is
+ * enabled. Instances not implementing this interface always stay on the heap.
+ * <p>
+ * A spilled instance is serialized and dropped. The next time its TaskScope is entered, a deserialized copy replaces
+ * the instance, and is also the one being destroyed with the TaskScope. Therefore
+ * </p>
+ * <ul>
+ * <li>{@code transient} fields of the copy are not restored, but left at their default values</li>
+ * <li>injected dependencies are serialized along with the instance, so the copy references copies of them</li>
+ * <li>dependent objects are destroyed with the original instance they were created for, not the copy</li>
+ * </ul>
+ * <p>
+ * Only beans which are exclusively accessed via their client proxies, and whose state is held in plain serializable
+ * fields, should be spillable.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+public interface Spillable extends Serializable {
+}
@@ -1,18 +1,24 @@
 package io.github.lumnitzf.taskscoped;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
  * The unique id of the current task. Will automatically be created once the TaskScope is entered.
  * Beans may inject the current TaskId. If the contextual instance without proxy is required, it can be obtained via the
- * {@link TaskIdManager}.
+ * {@code TaskIdManager} of the CDI integration.
  *
  * @author Fritz Lumnitz
  */
 // The CDI Producer is located at TaskIdManager
 public class TaskId {
 
+    /**
+     * The number of bytes used to {@link #writeTo(ByteBuffer) encode} a TaskId.
+     */
+    public static final int BYTES = 2 * Long.BYTES;
+
     /**
      * A lock for internal synchronization on the TaskId.
      */
@@ -25,16 +31,37 @@ public class TaskId {
     private final UUID value;
 
     // Make private constructor to avoid subclassing without declaring class as final
-    // package private instance may be acquired via create()
-    private TaskId() {
-        value = UUID.randomUUID();
+    // package private instance may be acquired via create() or valueOf()
+    private TaskId(final UUID value) {
+        this.value = value;
     }
 
     /**
      * @return A newly created TaskId
      */
     static TaskId create() {
-        return new TaskId();
+        return new TaskId(UUID.randomUUID());
+    }
+
+    /**
+     * @param value the value of the TaskId
+     *
+     * @return A newly created TaskId with the provided value, which must be made canonical by the caller
+     */
+    static TaskId valueOf(final UUID value) {
+        return new TaskId(Objects.requireNonNull(value, "value"));
+    }
+
+    /**
+     * Writes the {@link #BYTES} bytes of this TaskId at the current position of {@code target}, without intermediate
+     * copies, and advances the position. Both sides must use the same {@link ByteBuffer#order() byte order}.
+     *
+     * @param target buffer to write to
+     *
+     * @throws java.nio.BufferOverflowException if fewer than {@link #BYTES} bytes are remaining in the buffer
+     */
+    public void writeTo(final ByteBuffer target) {
+        target.putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits());
     }
 
     /**
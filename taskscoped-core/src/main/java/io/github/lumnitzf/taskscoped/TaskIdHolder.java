@@ -0,0 +1,144 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link TaskId} of each thread.
+ *
+ * @author Fritz Lumnitz
+ */
+final class TaskIdHolder {
+
+    /**
+     * The current set TaskId for this thread.
+     * <p>
+     * Wrapping in an {@link AtomicReference} provides the ability to acquire and change this value easily without
+     * multiple lookups in the ThreadLocal internal map.
+     */
+    private static final ThreadLocal<AtomicReference<TaskId>> CURRENT = ThreadLocal.withInitial(AtomicReference::new);
+
+    /**
+     * The context which lazily enters the TaskScope for this thread, once the current TaskId is required.
+     *
+     * @see #setPending(TaskScopeEngine)
+     */
+    private static final ThreadLocal<TaskScopeEngine> PENDING = new ThreadLocal<>();
+
+    private TaskIdHolder() {
+    }
+
+    /**
+     * Returns the current set TaskId. Does not create an entry in the ThreadLocal store, if no value is set.
+     * If the TaskScope is {@link #setPending(TaskScopeEngine) pending} for this thread, it is entered first.
+     *
+     * @return The current set TaskId
+     */
+    static Optional<TaskId> get() {
+        final AtomicReference<TaskId> ref = CURRENT.get();
+        if (ref.get() == null) {
+            final TaskScopeEngine pending = PENDING.get();
+            if (pending == null) {
+                CURRENT.remove();
+                return Optional.empty();
+            }
+            pending.materialize();
+        }
+        return Optional.ofNullable(ref.get());
+    }
+
+    /**
+     * Checks if a TaskId is set or {@link #setPending(TaskScopeEngine) pending}, without entering a pending
+     * TaskScope. Does not create an entry in the ThreadLocal store, if no value is set.
+     *
+     * @return {@code true} if a TaskId is set or pending for this thread
+     */
+    static boolean isPresentOrPending() {
+        if (CURRENT.get().get() != null) {
+            return true;
+        }
+        CURRENT.remove();
+        return PENDING.get() != null;
+    }
+
+    /**
+     * @return {@code true} if a TaskScope is {@link #setPending(TaskScopeEngine) pending} for this thread
+     */
+    static boolean isPending() {
+        return PENDING.get() != null;
+    }
+
+    /**
+     * Marks the TaskScope as pending for this thread. The TaskScope is {@link TaskScopeEngine#materialize()
+     * entered} by {@code engine} the first time the current TaskId is {@link #get() required}.
+     *
+     * @param engine The engine entering the TaskScope
+     */
+    static void setPending(final TaskScopeEngine engine) {
+        PENDING.set(engine);
+    }
+
+    /**
+     * Removes the pending mark of this thread.
+     *
+     * @return {@code true} if the TaskScope was still pending, {@code false} if it has been entered meanwhile
+     */
+    static boolean removePending() {
+        final boolean pending = PENDING.get() != null;
+        PENDING.remove();
+        return pending;
+    }
+
+    /**
+     * Checks if the provided TaskId is the current set TaskId, without creating an {@link Optional}. Does not create an
+     * entry in the ThreadLocal store, if no value is set.
+     *
+     * @param taskId The TaskId to check
+     *
+     * @return {@code true} if {@code taskId} is the current set TaskId
+     */
+    static boolean isCurrent(final TaskId taskId) {
+        final TaskId current = CURRENT.get().get();
+        if (current == null) {
+            CURRENT.remove();
+        }
+        return current != null && current == taskId;
+    }
+
+    /**
+     * If the TaskScope is {@link #setPending(TaskScopeEngine) pending} for this thread, it is entered first, instead of
+     * creating a second TaskScope while the pending mark is still set.
+     *
+     * @return The current set TaskId. Creates and stores a new one if none is already set.
+     */
+    static TaskId getOrCreate() {
+        final AtomicReference<TaskId> ref = CURRENT.get();
+        TaskId taskId = ref.get();
+        if (taskId == null) {
+            final TaskScopeEngine pending = PENDING.get();
+            if (pending != null) {
+                pending.materialize();
+                return ref.get();
+            }
+            taskId = TaskId.create();
+            ref.set(taskId);
+        }
+        return taskId;
+    }
+
+    /**
+     * Remove the current TaskId entry from the ThreadLocal map.
+     */
+    static void remove() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Set the current TaskId to the provided value.
+     *
+     * @param taskId The new TaskId.
+     */
+    static void set(final TaskId taskId) {
+        CURRENT.get().set(taskId);
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Provides a value bound to the current TaskScope, similar to a {@link ThreadLocal} for threads. Each TaskScope has
+ * its own, independently initialized value, which is shared by all threads inside the TaskScope. The value is dropped
+ * once the TaskScope is destroyed.
+ * <p>
+ * As the value may be accessed concurrently by multiple threads, it should be thread-safe.
+ * </p>
+ * <p>
+ * The values are stored in a slot of the TaskScope, identified by an index assigned to each TaskLocal, so an access
+ * does not require hashing. Indices are never reused, so TaskLocals should be long-lived, e.g. stored in static
+ * fields like ThreadLocals.
+ * </p>
+ *
+ * @param <T> the type of the value
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskLocal<T> {
+
+    /**
+     * Provides the slot index of each TaskLocal.
+     */
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    /**
+     * The index of the slot holding the values of this TaskLocal.
+     */
+    private final int index = NEXT_INDEX.getAndIncrement();
+
+    /**
+     * The engine managing the TaskScopes.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * Supplies the initial value of each TaskScope.
+     */
+    private final Supplier<? extends T> initialValue;
+
+    /**
+     * Invoked with the value of each TaskScope, once the TaskScope is destroyed.
+     */
+    private final Consumer<? super T> cleanup;
+
+    /**
+     * Creates a TaskLocal, which is initialized to {@code null} in each TaskScope.
+     *
+     * @param engine the engine managing the TaskScopes
+     */
+    public TaskLocal(final TaskScopeEngine engine) {
+        this(engine, () -> null);
+    }
+
+    /**
+     * Creates a TaskLocal, which is initialized by {@code initialValue} on first access in each TaskScope.
+     *
+     * @param engine       the engine managing the TaskScopes
+     * @param initialValue supplying the initial value
+     */
+    public TaskLocal(final TaskScopeEngine engine, final Supplier<? extends T> initialValue) {
+        this(engine, initialValue, TaskLocal::discard);
+    }
+
+    /**
+     * Creates a TaskLocal, which is initialized by {@code initialValue} on first access in each TaskScope. Once the
+     * TaskScope is destroyed, {@code cleanup} is invoked with its current value, e.g. to close it. Values which have
+     * been replaced by {@link #set(Object)} or {@link #remove() removed} are not cleaned up.
+     *
+     * @param engine       the engine managing the TaskScopes
+     * @param initialValue supplying the initial value
+     * @param cleanup      cleaning up the value of a destroyed TaskScope
+     */
+    public TaskLocal(final TaskScopeEngine engine, final Supplier<? extends T> initialValue,
+                     final Consumer<? super T> cleanup) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.initialValue = Objects.requireNonNull(initialValue, "initialValue");
+        this.cleanup = Objects.requireNonNull(cleanup, "cleanup");
+    }
+
+    /**
+     * @return the value of the current TaskScope, initialized on first access
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public T get() {
+        return engine.currentInstances().getSlot(index, initialValue, cleanup);
+    }
+
+    /**
+     * Sets the value of the current TaskScope.
+     *
+     * @param value the new value
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public void set(final T value) {
+        engine.currentInstances().putSlot(index, value, cleanup);
+    }
+
+    /**
+     * Removes the value of the current TaskScope, so it is initialized again on the next access.
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public void remove() {
+        engine.currentInstances().removeSlot(index);
+    }
+
+    private static void discard(final Object value) {
+        // Values are only dropped, as they have no lifecycle
+    }
+}
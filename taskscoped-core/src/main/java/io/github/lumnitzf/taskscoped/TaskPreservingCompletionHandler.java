@@ -0,0 +1,104 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.nio.channels.CompletionHandler;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Decorator for {@link CompletionHandler}, providing the task preserving implementation for asynchronous channels.
+ * The decorator stores the current {@link TaskId} when being created, and keeps the TaskScope alive while the I/O
+ * operation is pending, without blocking any thread. The delegate is notified inside the TaskScope, on whatever thread
+ * of the channel group completes the operation.
+ * <p>
+ * Each decorator is expected to be passed to exactly one I/O operation. Handlers reused for consecutive operations,
+ * e.g. a read loop, must be decorated again for each operation, which is cheap inside the completing handler, as it
+ * runs inside the TaskScope.
+ * </p>
+ * <p>
+ * If the TaskScope is {@link TaskScopeEngine#cancel(TaskId, boolean) cancelled} while the operation is pending, the
+ * TaskScope is not kept alive anymore. The delegate is then notified of the completion outside of a TaskScope, by
+ * {@link CompletionHandler#failed(Throwable, Object) failed} with a {@link CancellationException}.
+ * </p>
+ *
+ * @param <V> the result type of the I/O operation
+ * @param <A> the type of the object attached to the I/O operation
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(CompletionHandler)
+ */
+class TaskPreservingCompletionHandler<V, A> implements CompletionHandler<V, A>, PendingWork {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The delegate to notify.
+     */
+    private final CompletionHandler<V, ? super A> delegate;
+
+    /**
+     * Flag indicating if the operation has been {@link #cancel() cancelled} together with its TaskScope.
+     */
+    private volatile boolean cancelled;
+
+    TaskPreservingCompletionHandler(final TaskScopeEngine engine, final CompletionHandler<V, ? super A> delegate) {
+        Objects.requireNonNull(engine, "engine");
+        Objects.requireNonNull(delegate, "delegate");
+        this.taskId = TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive);
+        this.engine = engine;
+        this.delegate = delegate;
+        engine.register(taskId, this);
+    }
+
+    @Override
+    public void completed(final V result, final A attachment) {
+        if (cancelled) {
+            notifyCancelled(attachment);
+            return;
+        }
+        final TaskId previous = engine.enter(taskId);
+        engine.unregister(taskId, this);
+        try {
+            delegate.completed(result, attachment);
+        } finally {
+            engine.exitWorker(previous);
+        }
+    }
+
+    @Override
+    public void failed(final Throwable exc, final A attachment) {
+        if (cancelled) {
+            notifyCancelled(attachment);
+            return;
+        }
+        final TaskId previous = engine.enter(taskId);
+        engine.unregister(taskId, this);
+        try {
+            delegate.failed(exc, attachment);
+        } finally {
+            engine.exitWorker(previous);
+        }
+    }
+
+    private void notifyCancelled(final A attachment) {
+        // The scope must not be re-created by an operation of a cancelled scope
+        delegate.failed(new CancellationException("Task " + taskId + " has been cancelled"), attachment);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
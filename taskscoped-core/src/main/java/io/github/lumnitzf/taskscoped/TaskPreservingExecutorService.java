@@ -1,11 +1,6 @@
 package io.github.lumnitzf.taskscoped;
 
-import javax.annotation.Priority;
-import javax.decorator.Decorator;
-import javax.decorator.Delegate;
-import javax.enterprise.inject.spi.BeanManager;
-import javax.inject.Inject;
-import javax.interceptor.Interceptor;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -13,51 +8,70 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
- * {@link TaskPreserving} decorator for {@link ExecutorService}. <br>
+ * Task preserving decorator for {@link ExecutorService}. <br>
  * Wraps all provided {@link Runnable} and {@link Callable} to be executed in the same TaskScope as the invoker Thread.
  * Subclasses may use the various {@code decorate(...)} methods to achieve the same behavior.
+ * <p>
+ * The futures of submitted tasks are {@link #track(Future) tracked}, so they are cancelled once the TaskScope is
+ * {@link TaskScopeEngine#cancel(TaskId, boolean) cancelled}. Tasks may be run inline by the submitting thread,
+ * according to the {@link TaskScopeEngine#setInlinePolicy(InlinePolicy) inline policy}.
+ * </p>
  *
  * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(ExecutorService)
  */
-@Decorator
-@Priority(Interceptor.Priority.LIBRARY_AFTER)
-public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
+public class TaskPreservingExecutorService implements ExecutorService {
 
     /**
-     * The {@link BeanManager} to get the {@link TaskScopedContext}.
+     * The default amount of tasks executed together by {@link #submitAll(Collection)}.
      */
-    protected final BeanManager beanManager;
+    public static final int DEFAULT_CHUNK_SIZE = 64;
 
     /**
-     * The decorated {@link TaskPreserving} delegate.
+     * The {@link TaskScopeEngine} managing the TaskScopes.
+     */
+    protected final TaskScopeEngine engine;
+
+    /**
+     * The decorated delegate.
      */
     protected final ExecutorService delegate;
 
-    @Inject
-    protected TaskPreservingExecutorServiceDecorator(final BeanManager beanManager,
-                                                     @Delegate @TaskPreserving final ExecutorService delegate) {
-        this.beanManager = Objects.requireNonNull(beanManager, "beanManager");
+    public TaskPreservingExecutorService(final TaskScopeEngine engine, final ExecutorService delegate) {
+        this.engine = Objects.requireNonNull(engine, "engine");
         this.delegate = Objects.requireNonNull(delegate, "delegate");
     }
 
     @Override
     public <T> Future<T> submit(final Callable<T> task) {
-        return delegate.submit(decorate(task));
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<>(task));
+        }
+        return track(delegate.submit(decorate(task)));
     }
 
     @Override
     public <T> Future<T> submit(final Runnable task, final T result) {
-        return delegate.submit(decorate(task), result);
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<>(task, result));
+        }
+        return track(delegate.submit(decorate(task), result));
     }
 
     @Override
     public Future<?> submit(final Runnable task) {
-        return delegate.submit(decorate(task));
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<Void>(task, null));
+        }
+        return track(delegate.submit(decorate(task)));
     }
 
     @Override
@@ -84,9 +98,107 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
 
     @Override
     public void execute(final Runnable command) {
+        if (engine.runsInline(command, delegate)) {
+            command.run();
+            return;
+        }
         delegate.execute(decorate(command));
     }
 
+    /**
+     * Submits all tasks for execution in chunks of {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param tasks the tasks to submit
+     * @param <T>   the type of the values returned from the tasks
+     *
+     * @return a list of Futures representing the tasks, in the same sequential order as produced by the iterator for
+     *         the given task list
+     *
+     * @see #submitAll(Collection, int)
+     */
+    public <T> List<Future<T>> submitAll(final Collection<? extends Callable<T>> tasks) {
+        return submitAll(tasks, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Submits all tasks for execution in chunks of {@code chunkSize}. Each chunk is executed by a single worker,
+     * which enters the TaskScope only once and runs the tasks of the chunk sequentially. In contrast to
+     * {@link #submit(Callable)} the TaskScope is entered, exited, registered and unregistered once per chunk instead of
+     * once per task. This is intended for a big amount of very small tasks, where the TaskScope handling would
+     * otherwise exceed the actual work.
+     * <p>
+     * Each task still has its own {@link Future}. A task cancelled before its chunk reaches it is skipped, and a
+     * failing task does not affect the other tasks of the chunk. If a chunk is rejected, its futures are cancelled
+     * and the remaining tasks are not submitted, while the chunks submitted before are still executed.
+     * </p>
+     *
+     * @param tasks     the tasks to submit
+     * @param chunkSize the maximum amount of tasks executed together
+     * @param <T>       the type of the values returned from the tasks
+     *
+     * @return a list of Futures representing the tasks, in the same sequential order as produced by the iterator for
+     *         the given task list
+     *
+     * @throws IllegalArgumentException   if {@code chunkSize} is not positive
+     * @throws RejectedExecutionException if a chunk cannot be accepted for execution
+     */
+    public <T> List<Future<T>> submitAll(final Collection<? extends Callable<T>> tasks, final int chunkSize) {
+        Objects.requireNonNull(tasks, "tasks");
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, but was " + chunkSize);
+        }
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        List<RunnableFuture<T>> chunk = new ArrayList<>(Math.min(chunkSize, tasks.size()));
+        for (final Callable<T> task : tasks) {
+            final RunnableFuture<T> future = track(new FutureTask<>(Objects.requireNonNull(task, "task")));
+            futures.add(future);
+            chunk.add(future);
+            if (chunk.size() == chunkSize) {
+                executeChunk(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            executeChunk(chunk);
+        }
+        return futures;
+    }
+
+    private void executeChunk(final List<? extends RunnableFuture<?>> chunk) {
+        Runnable decorated = null;
+        try {
+            decorated = decorate(() -> chunk.forEach(Runnable::run));
+            delegate.execute(decorated);
+        } catch (final RejectedExecutionException e) {
+            // Never handed over, so neither the futures would complete nor the TaskScope would be released
+            chunk.forEach(future -> future.cancel(false));
+            if (decorated instanceof TaskPreservingRunnableDecorator) {
+                ((TaskPreservingRunnableDecorator) decorated).discard();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> Future<T> runInline(final RunnableFuture<T> future) {
+        // Already inside the TaskScope, so neither registering nor entering is required
+        future.run();
+        return future;
+    }
+
+    /**
+     * Keeps track of the {@code future} of a task submitted in the current TaskScope, so that it is cancelled once the
+     * TaskScope is {@link TaskScopeEngine#cancel(TaskId, boolean) cancelled}.
+     *
+     * @param future of the submitted task
+     * @param <F>    type of the future
+     *
+     * @return {@code future}
+     */
+    protected <F extends Future<?>> F track(final F future) {
+        TaskIdHolder.get().ifPresent(taskId -> engine.track(taskId, future));
+        return future;
+    }
+
     /**
      * Decorates the provided {@link Runnable} to be executed in the same TaskScope as this method invocation.
      * The {@code runnable} is expected to run exactly once in the TaskScope. If it does not run at all, the TaskScope
@@ -107,15 +219,15 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
      * Decorates the provided {@link Runnable} to be executed in the same TaskScope as this method invocation.
      *
      * @param runnable              Runnable to decorate.
-     * @param registerOnCreation    indicates if the callable should be {@link TaskScopedContext#register(TaskId,
+     * @param registerOnCreation    indicates if the callable should be {@link TaskScopeEngine#register(TaskId,
      *                              Object) registered} for execution
-     * @param unregisterOnExecution indicates if the callable should be {@link TaskScopedContext#unregister(TaskId,
+     * @param unregisterOnExecution indicates if the callable should be {@link TaskScopeEngine#unregister(TaskId,
      *                              Object) unregistered} before its execution.
      *
      * @return decorated Runnable, {@code null} if {@code runnable} was {@code null}
      */
     protected Runnable decorate(final Runnable runnable, final boolean registerOnCreation, final boolean unregisterOnExecution) {
-        return runnable == null ? null : new TaskPreservingRunnableDecorator(getContext(), runnable, registerOnCreation, unregisterOnExecution);
+        return runnable == null ? null : new TaskPreservingRunnableDecorator(engine, runnable, registerOnCreation, unregisterOnExecution);
     }
 
     /**
@@ -139,9 +251,9 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
      * Decorates the provided {@link Callable} to be executed in the same TaskScope as this method invocation.
      *
      * @param callable              Callable to decorate
-     * @param registerOnCreation    indicates if the callable should be {@link TaskScopedContext#register(TaskId,
+     * @param registerOnCreation    indicates if the callable should be {@link TaskScopeEngine#register(TaskId,
      *                              Object) registered} for execution
-     * @param unregisterOnExecution indicates if the callable should be {@link TaskScopedContext#unregister(TaskId,
+     * @param unregisterOnExecution indicates if the callable should be {@link TaskScopeEngine#unregister(TaskId,
      *                              Object) unregistered} before its execution.
      * @param <T>                   the type of the value returned from the callable
      *
@@ -149,7 +261,7 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
      */
     protected <T> Callable<T> decorate(final Callable<T> callable, final boolean registerOnCreation,
                                        final boolean unregisterOnExecution) {
-        return callable == null ? null : new TaskPreservingCallableDecorator<>(getContext(), callable,
+        return callable == null ? null : new TaskPreservingCallableDecorator<>(engine, callable,
                 registerOnCreation,
                 unregisterOnExecution);
     }
@@ -177,9 +289,9 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
      * {@code null} instances in the collection also be present in the resulting collection.
      *
      * @param tasks                 collection of callable to decorate.
-     * @param registerOnCreation    indicates if the tasks should be {@link TaskScopedContext#register(TaskId,
+     * @param registerOnCreation    indicates if the tasks should be {@link TaskScopeEngine#register(TaskId,
      *                              Object) registered} for execution
-     * @param unregisterOnExecution indicates if the tasks should be {@link TaskScopedContext#unregister(TaskId,
+     * @param unregisterOnExecution indicates if the tasks should be {@link TaskScopeEngine#unregister(TaskId,
      *                              Object) unregistered} before its execution.
      * @param <T>                   the type of values returned from the tasks
      *
@@ -192,10 +304,6 @@ public class TaskPreservingExecutorServiceDecorator implements ExecutorService {
                 .map(task -> decorate(task, registerOnCreation, unregisterOnExecution)).collect(Collectors.toList());
     }
 
-    private TaskScopedContext getContext() {
-        return (TaskScopedContext) beanManager.getContext(TaskScoped.class);
-    }
-
     // Only delegated methods without changed behavior
 
     @Override
@@ -0,0 +1,227 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Task preserving decorator for {@link ForkJoinPool}, which is a {@link ForkJoinPool} itself. <br>
+ * All tasks submitted to this pool are executed by the delegate, in the same TaskScope as the invoker Thread. All other
+ * methods, including the configuration and statistics, are forwarded to the delegate. The own pool of this decorator
+ * is never used.
+ * <p>
+ * Submitted {@link ForkJoinTask ForkJoinTasks} are invoked by a task preserving wrapper, and complete as usual. Their
+ * subtasks are {@link ForkJoinTask#fork() forked} to the delegate directly. They are only executed inside the
+ * TaskScope if they are executed by the forking thread, e.g. when being joined before they are stolen by a different
+ * worker.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(ForkJoinPool)
+ */
+public class TaskPreservingForkJoinPool extends ForkJoinPool {
+
+    /**
+     * The {@link TaskScopeEngine} managing the TaskScopes.
+     */
+    protected final TaskScopeEngine engine;
+
+    /**
+     * The decorated delegate.
+     */
+    protected final ForkJoinPool delegate;
+
+    public TaskPreservingForkJoinPool(final TaskScopeEngine engine, final ForkJoinPool delegate) {
+        // The own pool is never started
+        super(1);
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+    }
+
+    @Override
+    public <T> T invoke(final ForkJoinTask<T> task) {
+        return submit(task).join();
+    }
+
+    @Override
+    public void execute(final ForkJoinTask<?> task) {
+        submit(task);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        delegate.execute(decorate(task));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final ForkJoinTask<T> task) {
+        Objects.requireNonNull(task, "task");
+        // The task itself completes once invoked by the wrapper, any exception is reported by the task
+        delegate.execute(decorate(task::quietlyInvoke));
+        return track(task);
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final Callable<T> task) {
+        return track(delegate.submit(decorate(task)));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final Runnable task, final T result) {
+        return track(delegate.submit(decorate(task), result));
+    }
+
+    @Override
+    public ForkJoinTask<?> submit(final Runnable task) {
+        return track(delegate.submit(decorate(task)));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) {
+        return delegate.invokeAll(decorate(tasks));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks, final long timeout,
+                                         final TimeUnit unit) throws InterruptedException {
+        return delegate.invokeAll(decorate(tasks), timeout, unit);
+    }
+
+    @Override
+    public <T> T invokeAny(final Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        return delegate.invokeAny(decorate(tasks));
+    }
+
+    @Override
+    public <T> T invokeAny(final Collection<? extends Callable<T>> tasks, final long timeout,
+                           final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return delegate.invokeAny(decorate(tasks), timeout, unit);
+    }
+
+    private <T> ForkJoinTask<T> track(final ForkJoinTask<T> task) {
+        TaskIdHolder.get().ifPresent(taskId -> engine.track(taskId, task));
+        return task;
+    }
+
+    private Runnable decorate(final Runnable task) {
+        return new TaskPreservingRunnableDecorator(engine, Objects.requireNonNull(task, "task"), true, true);
+    }
+
+    private <T> Callable<T> decorate(final Callable<T> task) {
+        return new TaskPreservingCallableDecorator<>(engine, Objects.requireNonNull(task, "task"), true, true);
+    }
+
+    private <T> List<Callable<T>> decorate(final Collection<? extends Callable<T>> tasks) {
+        return tasks.stream().map(this::decorate).collect(Collectors.toList());
+    }
+
+    // Only delegated methods without changed behavior
+
+    @Override
+    public ForkJoinWorkerThreadFactory getFactory() {
+        return delegate.getFactory();
+    }
+
+    @Override
+    public Thread.UncaughtExceptionHandler getUncaughtExceptionHandler() {
+        return delegate.getUncaughtExceptionHandler();
+    }
+
+    @Override
+    public int getParallelism() {
+        return delegate.getParallelism();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return delegate.getPoolSize();
+    }
+
+    @Override
+    public boolean getAsyncMode() {
+        return delegate.getAsyncMode();
+    }
+
+    @Override
+    public int getRunningThreadCount() {
+        return delegate.getRunningThreadCount();
+    }
+
+    @Override
+    public int getActiveThreadCount() {
+        return delegate.getActiveThreadCount();
+    }
+
+    @Override
+    public boolean isQuiescent() {
+        return delegate.isQuiescent();
+    }
+
+    @Override
+    public long getStealCount() {
+        return delegate.getStealCount();
+    }
+
+    @Override
+    public long getQueuedTaskCount() {
+        return delegate.getQueuedTaskCount();
+    }
+
+    @Override
+    public int getQueuedSubmissionCount() {
+        return delegate.getQueuedSubmissionCount();
+    }
+
+    @Override
+    public boolean hasQueuedSubmissions() {
+        return delegate.hasQueuedSubmissions();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean isTerminating() {
+        return delegate.isTerminating();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public boolean awaitQuiescence(final long timeout, final TimeUnit unit) {
+        return delegate.awaitQuiescence(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
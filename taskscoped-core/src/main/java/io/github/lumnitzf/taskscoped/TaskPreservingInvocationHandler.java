@@ -0,0 +1,106 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link InvocationHandler} of the {@link TaskPreservingProxy contextual proxies}, providing the task preserving
+ * implementation. The handler stores the current {@link TaskId} when being created, and wraps each invocation of the
+ * target in the respective TaskScope. The TaskScope is kept alive until the proxy is {@link
+ * TaskPreservingProxy#release() released}.
+ *
+ * @author Fritz Lumnitz
+ */
+class TaskPreservingInvocationHandler implements InvocationHandler {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The target the invocations are passed on to.
+     */
+    private final Object target;
+
+    /**
+     * Flag indicating if the proxy has been released.
+     */
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    TaskPreservingInvocationHandler(final TaskScopeEngine engine, final Object target) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.target = Objects.requireNonNull(target, "target");
+        this.taskId = TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive);
+        engine.register(taskId, this);
+    }
+
+    /**
+     * @param proxy any object
+     *
+     * @return the target of {@code proxy}, if it is a contextual proxy, {@code proxy} itself otherwise
+     */
+    static Object unwrap(final Object proxy) {
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+            if (handler instanceof TaskPreservingInvocationHandler) {
+                return ((TaskPreservingInvocationHandler) handler).target;
+            }
+        }
+        return proxy;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == TaskPreservingProxy.class) {
+            release();
+            return null;
+        }
+        if (method.getDeclaringClass() == Object.class) {
+            // Identity based, as the target may not be compared to proxies
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "TaskPreservingProxy{target=" + target + ", taskId=" + taskId + '}';
+            }
+        }
+        if (released.get()) {
+            throw new IllegalStateException("Contextual proxy of task " + taskId + " has already been released");
+        }
+        if (TaskIdHolder.isCurrent(taskId)) {
+            return invokeTarget(method, args);
+        }
+        final TaskId previous = engine.enter(taskId);
+        try {
+            return invokeTarget(method, args);
+        } finally {
+            engine.exit(previous);
+        }
+    }
+
+    private Object invokeTarget(final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            engine.unregister(taskId, this);
+        }
+    }
+}
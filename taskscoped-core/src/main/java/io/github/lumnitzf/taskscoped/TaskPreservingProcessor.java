@@ -0,0 +1,109 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decorator for {@link Processor}, providing the task preserving implementation for reactive streams.
+ * The decorator stores the current {@link TaskId} when being created. Signals received from upstream are wrapped as
+ * by a {@link TaskPreservingSubscriber}, and every downstream {@link Subscriber} is wrapped into a
+ * {@link TaskPreservingSubscriber} of the same TaskScope, even if it subscribes outside of it.
+ * <p>
+ * Creating the decorator does not keep the TaskScope alive. The upstream side keeps it alive from {@link
+ * #onSubscribe(Subscription)}, and each downstream subscriber from {@link #subscribe(Subscriber)}, until the
+ * respective stream is terminated or cancelled. If the TaskScope has already been destroyed when subscribing, the
+ * signals are delivered in a new TaskScope of the same {@link TaskId}.
+ * </p>
+ *
+ * @param <T> the type of element signaled to the processor
+ * @param <R> the type of element signaled by the processor
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskPreservingProcessor<T, R> implements Processor<T, R> {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The delegate processor.
+     */
+    private final Processor<T, R> delegate;
+
+    /**
+     * The upstream side of the delegate, wrapped in the TaskScope. Set once subscribed to the upstream publisher.
+     */
+    private final AtomicReference<TaskPreservingSubscriber<T>> upstream = new AtomicReference<>();
+
+    /**
+     * Creates a new decorator for the {@link TaskIdHolder#get() current} TaskScope.
+     *
+     * @param engine   the {@link TaskScopeEngine} to enter and exit
+     * @param delegate the processor to wrap
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public TaskPreservingProcessor(final TaskScopeEngine engine, final Processor<T, R> delegate) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.taskId = TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive);
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super R> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        delegate.subscribe(new TaskPreservingSubscriber<>(engine, taskId, subscriber));
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription");
+        final TaskPreservingSubscriber<T> subscriber = new TaskPreservingSubscriber<>(engine, taskId, delegate);
+        if (!upstream.compareAndSet(null, subscriber)) {
+            // Already subscribed, the additional subscription must be cancelled (rule 2.5)
+            subscriber.release();
+            subscription.cancel();
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(final T item) {
+        upstream().onNext(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        upstream().onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        upstream().onComplete();
+    }
+
+    /**
+     * @return the upstream side of the delegate
+     *
+     * @throws IllegalStateException if signaled before {@link #onSubscribe(Subscription)}
+     */
+    private TaskPreservingSubscriber<T> upstream() {
+        final TaskPreservingSubscriber<T> subscriber = upstream.get();
+        if (subscriber == null) {
+            throw new IllegalStateException("Signal received before onSubscribe");
+        }
+        return subscriber;
+    }
+}
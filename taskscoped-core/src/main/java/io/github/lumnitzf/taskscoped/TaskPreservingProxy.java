@@ -0,0 +1,18 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * Implemented by all {@link TaskScopeEngine#contextualProxy(Object, Class) contextual proxies}, which invoke their
+ * target inside the TaskScope they were created in. <br>
+ * A proxy keeps its TaskScope alive, until it is {@link #release() released} by its holder, e.g. once the callback
+ * will not be invoked anymore.
+ *
+ * @author Fritz Lumnitz
+ */
+public interface TaskPreservingProxy {
+
+    /**
+     * Releases the TaskScope of this proxy, which may then be destroyed. The proxy must not be invoked afterwards.
+     * Subsequent calls have no effect.
+     */
+    void release();
+}
@@ -0,0 +1,521 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Task preserving executor for a high rate of small tasks, which does not allocate per executed task. <br>
+ * In contrast to a {@link TaskPreservingExecutorService decorated} executor, the tasks are neither wrapped into a
+ * decorator nor into a queue node. Instead, the TaskId and the task are stored in preallocated slots of a bounded
+ * ring buffer, which are claimed by a single CAS and consumed by a fixed amount of worker threads.
+ * <p>
+ * Each worker drains up to {@code batchSize} tasks at once, and enters the TaskScope only once for consecutive tasks of
+ * the same TaskScope. Idle workers park, and are only woken up by a submitter if all workers are idle. A worker which
+ * still finds tasks after its batch wakes up the next idle worker, so the wake ups are batched under load.
+ * </p>
+ * <p>
+ * Pending tasks keep their TaskScope alive by a single counting registration per TaskScope, and are skipped once the
+ * TaskScope is {@link TaskScopeEngine#cancel(TaskId, boolean) cancelled}. Tasks submitted outside of a TaskScope are
+ * executed without any TaskScope. {@link #execute(Runnable)} is the allocation free path, the {@code submit(...)}
+ * methods additionally create the returned future, which is tracked for cancellation.
+ * </p>
+ * <p>
+ * Tasks submitted while the buffer is full are rejected with a {@link RejectedExecutionException}, so the capacity must
+ * cover the expected peak of pending tasks. As this executor is task preserving itself, it must not be decorated
+ * again, e.g. by a {@link TaskPreserving} producer.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskPreservingRingBufferExecutor extends AbstractExecutorService {
+
+    /**
+     * The default capacity of the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /**
+     * The default maximum amount of tasks a worker drains at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskPreservingRingBufferExecutor.class);
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /**
+     * The time an idle worker parks, before checking the buffer again. Submitters only wake up workers if all of them
+     * are idle, so this bounds the delay of a missed wake up.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TaskScopeEngine engine;
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final int batchSize;
+
+    /**
+     * The position of the next slot to claim by a submitter.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position of the next slot to claim by a worker.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final Worker[] workers;
+
+    /**
+     * The amount of workers parked, or about to park, because the buffer is empty.
+     */
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+
+    /**
+     * The amount of pending tasks per TaskScope. The counter itself is {@link TaskScopeEngine#register(TaskId, Object)
+     * registered} as long as it is positive, and removed once its TaskScope is cancelled.
+     */
+    private final ConcurrentMap<TaskId, PendingTasks> pendingTasks = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of workers which have not terminated yet. The last terminating worker releases the tasks submitted
+     * concurrently with its termination.
+     */
+    private final AtomicInteger liveWorkers;
+
+    private final CountDownLatch terminated;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates an executor with the {@link #DEFAULT_CAPACITY} and {@link #DEFAULT_BATCH_SIZE}.
+     *
+     * @param engine  the engine managing the TaskScopes
+     * @param threads the amount of worker threads
+     */
+    public TaskPreservingRingBufferExecutor(final TaskScopeEngine engine, final int threads) {
+        this(engine, threads, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an executor and starts its worker threads.
+     *
+     * @param engine    the engine managing the TaskScopes
+     * @param threads   the amount of worker threads
+     * @param capacity  the minimum amount of pending tasks, rounded up to the next power of two
+     * @param batchSize the maximum amount of tasks a worker drains at once
+     *
+     * @throws IllegalArgumentException if {@code threads}, {@code capacity} or {@code batchSize} is not positive
+     */
+    public TaskPreservingRingBufferExecutor(final TaskScopeEngine engine, final int threads, final int capacity,
+                                            final int batchSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, but was " + threads);
+        }
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30, but was " + capacity);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive, but was " + batchSize);
+        }
+        this.engine = Objects.requireNonNull(engine, "engine");
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.batchSize = batchSize;
+        this.liveWorkers = new AtomicInteger(threads);
+        this.terminated = new CountDownLatch(threads);
+        this.workers = new Worker[threads];
+        final int poolNumber = POOL_NUMBER.incrementAndGet();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker("taskscoped-ring-" + poolNumber + "-" + (i + 1));
+        }
+        for (final Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        Objects.requireNonNull(command, "command");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        final TaskId taskId = TaskIdHolder.get().orElse(null);
+        PendingTasks pending = null;
+        if (taskId != null) {
+            engine.checkMemoryBudget(taskId);
+            pending = register(taskId);
+        }
+        if (!offer(pending, command)) {
+            if (pending != null) {
+                unregister(pending);
+            }
+            throw new RejectedExecutionException("Buffer of " + slots.length + " tasks is full");
+        }
+        if (shutdown && liveWorkers.get() == 0) {
+            // Shut down concurrently, and all workers have terminated before they could see the task
+            for (final Runnable released : releasePending()) {
+                if (released == command) {
+                    throw new RejectedExecutionException("Executor has been shut down");
+                }
+            }
+            return;
+        }
+        if (idleWorkers.get() == workers.length) {
+            wakeUp();
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+        return track(super.newTaskFor(runnable, value));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+        return track(super.newTaskFor(callable));
+    }
+
+    /**
+     * @return the amount of tasks waiting for their execution
+     */
+    public int getQueueSize() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (final Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Shuts down this executor, interrupts the workers and releases the TaskScopes of the tasks never executed.
+     *
+     * @return the tasks never executed
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        final List<Runnable> pending = releasePending();
+        for (final Worker worker : workers) {
+            worker.interrupt();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private <F extends RunnableFuture<?>> F track(final F future) {
+        TaskIdHolder.get().ifPresent(taskId -> engine.track(taskId, future));
+        return future;
+    }
+
+    /**
+     * Removes all pending tasks from the buffer, and releases their TaskScopes.
+     *
+     * @return the removed tasks
+     */
+    private List<Runnable> releasePending() {
+        final List<Runnable> pending = new ArrayList<>();
+        Slot slot;
+        while ((slot = poll()) != null) {
+            final PendingTasks tasks = slot.pending;
+            pending.add(slot.task);
+            release(slot);
+            if (tasks != null) {
+                unregister(tasks);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the counter of the pending tasks of the TaskScope, which includes the submitted task
+     */
+    private PendingTasks register(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            final PendingTasks pending = pendingTasks.computeIfAbsent(taskId, PendingTasks::new);
+            if (pending.count++ == 0) {
+                // Cancels the counter instead, if the scope is already cancelled
+                engine.register(taskId, pending);
+            }
+            return pending;
+        }
+    }
+
+    private void unregister(final PendingTasks pending) {
+        final TaskId taskId = pending.taskId;
+        synchronized (taskId.lock) {
+            if (--pending.count > 0) {
+                return;
+            }
+            pendingTasks.remove(taskId, pending);
+        }
+        engine.unregister(taskId, pending);
+    }
+
+    /**
+     * @return {@code true} if the task was stored, {@code false} if the buffer is full
+     */
+    private boolean offer(final PendingTasks pending, final Runnable task) {
+        long position = tail.get();
+        while (true) {
+            final Slot slot = slots[(int) (position & mask)];
+            final long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.pending = pending;
+                    slot.task = task;
+                    // Publishes the task to the workers
+                    slot.sequence = position + 1;
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the task of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Claims the oldest filled slot. The slot must be {@link #release(Slot) released} after reading its content.
+     *
+     * @return the claimed slot, {@code null} if the buffer is empty
+     */
+    private Slot poll() {
+        long position = head.get();
+        while (true) {
+            final Slot slot = slots[(int) (position & mask)];
+            final long difference = slot.sequence - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return slot;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private void release(final Slot slot) {
+        slot.pending = null;
+        slot.task = null;
+        // Frees the slot for the submitter of the next lap
+        slot.sequence = slot.sequence + mask;
+    }
+
+    private void wakeUp() {
+        for (final Worker worker : workers) {
+            if (worker.parked) {
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * A preallocated entry of the buffer. The fields are written before, and read after the volatile {@link #sequence},
+     * which therefore publishes them.
+     */
+    private static final class Slot {
+
+        /**
+         * Free for the submitter at position {@code p} if it is {@code p}, and filled for the worker at position {@code
+         * p} if it is {@code p + 1}.
+         */
+        private volatile long sequence;
+
+        /**
+         * The counter of the TaskScope the task was submitted in, {@code null} if it was submitted outside of a
+         * TaskScope.
+         */
+        private PendingTasks pending;
+
+        private Runnable task;
+
+        private Slot(final long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Counter of the pending tasks of a single TaskScope, registered while positive. Accesses to the {@link #count}
+     * must be synchronized using the {@link TaskId#lock}.
+     */
+    private final class PendingTasks implements PendingWork {
+
+        private final TaskId taskId;
+
+        private int count = 0;
+
+        private volatile boolean cancelled = false;
+
+        private PendingTasks(final TaskId taskId) {
+            this.taskId = taskId;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            // Tasks submitted afterwards must not increment a counter which is not registered anymore
+            pendingTasks.remove(taskId, this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        /**
+         * Flag indicating if this worker is parked, or about to park, because the buffer is empty.
+         */
+        private volatile boolean parked = false;
+
+        private Worker(final String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown || !isEmpty()) {
+                    if (drainBatch() == batchSize) {
+                        // Probably more tasks than this worker can handle in time
+                        if (!isEmpty() && idleWorkers.get() > 0) {
+                            wakeUp();
+                        }
+                    } else {
+                        awaitTasks();
+                    }
+                }
+            } finally {
+                if (liveWorkers.decrementAndGet() == 0) {
+                    // Submitted after the last check for pending tasks, see execute()
+                    final List<Runnable> released = releasePending();
+                    if (!released.isEmpty()) {
+                        LOG.warn("Dropped {} tasks submitted during the shutdown", released.size());
+                    }
+                }
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * @return the amount of drained tasks
+         */
+        private int drainBatch() {
+            TaskId entered = null;
+            TaskId previous = null;
+            int drained = 0;
+            try {
+                Slot slot;
+                while (drained < batchSize && (slot = poll()) != null) {
+                    drained++;
+                    final PendingTasks pending = slot.pending;
+                    final Runnable task = slot.task;
+                    release(slot);
+                    final TaskId taskId = pending == null ? null : pending.taskId;
+                    final boolean cancelled = pending != null
+                            && (pending.isCancelled() || engine.isCancelled(taskId));
+                    if (taskId != entered) {
+                        if (entered != null) {
+                            engine.exitWorker(previous);
+                            entered = null;
+                        }
+                        if (taskId != null && !cancelled) {
+                            previous = engine.enter(taskId);
+                            entered = taskId;
+                        }
+                    }
+                    if (pending != null) {
+                        // Entered before unless cancelled, so unregistering does not destroy a running TaskScope
+                        unregister(pending);
+                        if (cancelled) {
+                            // The scope must not be re-created by a task of a cancelled scope
+                            continue;
+                        }
+                    }
+                    runTask(task);
+                }
+            } finally {
+                if (entered != null) {
+                    engine.exitWorker(previous);
+                }
+            }
+            return drained;
+        }
+
+        private void runTask(final Runnable task) {
+            try {
+                task.run();
+            } catch (final RuntimeException | Error e) {
+                LOG.error("Task {} failed", task, e);
+            }
+        }
+
+        private void awaitTasks() {
+            parked = true;
+            idleWorkers.incrementAndGet();
+            // Otherwise a task has been submitted before the submitter could see this worker being idle
+            if (isEmpty() && !shutdown) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            idleWorkers.decrementAndGet();
+            parked = false;
+            // Interruption is only used by shutdownNow, tasks must not see a stale flag
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+
+/**
+ * Decorator for {@link Runnable}, providing the task preserving implementation.
+ * The decorator stores the current {@link TaskId} when being created, and wraps the delegate call in the respective
+ * TaskScope. If the TaskScope has been {@link TaskScopeEngine#cancel(TaskId, boolean) cancelled} in the meantime, the
+ * delegate is skipped.
+ *
+ * @author Fritz Lumnitz
+ */
+class TaskPreservingRunnableDecorator implements Runnable, PendingWork {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The delegate {@link #run()} is wrapped for
+     */
+    private final Runnable delegate;
+
+    /**
+     * Flag indicating if the delegate should be {@link TaskScopeEngine#unregister(TaskId, Object) unregistered}
+     * before its execution.
+     */
+    private final boolean unregisterOnExecution;
+
+    /**
+     * The {@link TaskScopeEngine#registerTask(TaskId, PendingWork) registration} of this task, if it registers and
+     * unregisters itself. {@code null} if the registration is controlled by the caller, which then uses the delegate
+     * as registered instance.
+     */
+    private final PendingWork registration;
+
+    /**
+     * Flag indicating if this task has been {@link #cancel() cancelled} together with its TaskScope.
+     */
+    private volatile boolean cancelled;
+
+    TaskPreservingRunnableDecorator(final TaskScopeEngine engine, final Runnable delegate, final boolean registerOnCreation,
+                                    final boolean unregisterOnExecution) {
+        Objects.requireNonNull(engine, "engine");
+        Objects.requireNonNull(delegate, "delegate");
+        this.taskId = TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive);
+        this.engine = engine;
+        this.delegate = delegate;
+        this.unregisterOnExecution = unregisterOnExecution;
+        if (registerOnCreation) {
+            engine.checkMemoryBudget(taskId);
+        }
+        if (registerOnCreation && unregisterOnExecution) {
+            // Only a self-contained registration can be cancelled or released as orphan
+            this.registration = engine.registerTask(taskId, this);
+        } else {
+            this.registration = null;
+            if (registerOnCreation) {
+                engine.register(taskId, delegate);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        if (cancelled || (registration != null && registration.isCancelled()) || engine.isCancelled(taskId)) {
+            skip();
+            return;
+        }
+        final TaskId previous = engine.enter(taskId);
+        unregister();
+        try {
+            delegate.run();
+        } finally {
+            engine.exitWorker(previous);
+        }
+    }
+
+    private void skip() {
+        // The scope must not be re-created by a task of a cancelled scope
+        unregister();
+    }
+
+    private void unregister() {
+        if (!unregisterOnExecution) {
+            return;
+        }
+        if (registration != null) {
+            engine.unregisterTask(taskId, registration);
+        } else {
+            engine.unregister(taskId, delegate);
+        }
+    }
+
+    /**
+     * Releases the registration of this task, which is not going to be executed, e.g. as it has been dropped by
+     * {@link java.util.concurrent.ExecutorService#shutdownNow()}. The delegate is skipped, if executed anyway.
+     */
+    void discard() {
+        cancelled = true;
+        skip();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
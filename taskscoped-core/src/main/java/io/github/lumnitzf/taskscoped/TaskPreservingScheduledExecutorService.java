@@ -0,0 +1,55 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task preserving decorator for {@link ScheduledExecutorService}. <br>
+ * Delayed tasks are executed in the same TaskScope as the invoker Thread, just like immediately executed tasks.
+ * Periodic tasks enter the TaskScope for each execution, but do not keep it alive in between, as they never finish
+ * on their own. The TaskScope may therefore be destroyed and re-created between two executions.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(ScheduledExecutorService)
+ */
+public class TaskPreservingScheduledExecutorService extends TaskPreservingExecutorService
+        implements ScheduledExecutorService {
+
+    /**
+     * The decorated delegate.
+     */
+    protected final ScheduledExecutorService scheduledDelegate;
+
+    public TaskPreservingScheduledExecutorService(final TaskScopeEngine engine,
+                                                  final ScheduledExecutorService delegate) {
+        super(engine, delegate);
+        this.scheduledDelegate = Objects.requireNonNull(delegate, "delegate");
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+        return track(scheduledDelegate.schedule(decorate(command), delay, unit));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+        return track(scheduledDelegate.schedule(decorate(callable), delay, unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period,
+                                                  final TimeUnit unit) {
+        return track(scheduledDelegate.scheduleAtFixedRate(decorate(command, false, false), initialDelay, period,
+                unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay,
+                                                     final long delay, final TimeUnit unit) {
+        return track(scheduledDelegate.scheduleWithFixedDelay(decorate(command, false, false), initialDelay, delay,
+                unit));
+    }
+}
@@ -0,0 +1,269 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task preserving decorator for {@link ScheduledThreadPoolExecutor}, which is a {@link ScheduledThreadPoolExecutor}
+ * itself. <br>
+ * All tasks are executed by the delegate. Immediate and delayed tasks are executed in the same TaskScope as the
+ * invoker Thread. Periodic tasks enter the TaskScope for each execution, but do not keep it alive in between, as they
+ * never finish on their own. All other methods, including the configuration and statistics, are forwarded to the
+ * delegate. The own pool of this decorator is never used, so its protected hooks are not invoked.
+ * <p>
+ * The {@link #getQueue() queue} of the delegate contains the decorated tasks, so tasks can not be {@link
+ * #remove(Runnable) removed} from it. Use {@link ScheduledFuture#cancel(boolean)} instead.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(ScheduledThreadPoolExecutor)
+ * @see TaskPreservingThreadPoolExecutor
+ */
+public class TaskPreservingScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor {
+
+    /**
+     * The {@link TaskScopeEngine} managing the TaskScopes.
+     */
+    protected final TaskScopeEngine engine;
+
+    /**
+     * The decorated delegate.
+     */
+    protected final ScheduledThreadPoolExecutor delegate;
+
+    public TaskPreservingScheduledThreadPoolExecutor(final TaskScopeEngine engine,
+                                                     final ScheduledThreadPoolExecutor delegate) {
+        // The own pool is never started
+        super(0);
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+    }
+
+    // All execute, submit and invoke methods end up in the schedule methods
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+        Objects.requireNonNull(command, "command");
+        return track(delegate.schedule(new TaskPreservingRunnableDecorator(engine, command, true, true), delay, unit));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+        Objects.requireNonNull(callable, "callable");
+        return track(delegate.schedule(new TaskPreservingCallableDecorator<>(engine, callable, true, true), delay,
+                unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period,
+                                                  final TimeUnit unit) {
+        Objects.requireNonNull(command, "command");
+        return track(delegate.scheduleAtFixedRate(new TaskPreservingRunnableDecorator(engine, command, false, false),
+                initialDelay, period, unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay,
+                                                     final long delay, final TimeUnit unit) {
+        Objects.requireNonNull(command, "command");
+        return track(delegate.scheduleWithFixedDelay(new TaskPreservingRunnableDecorator(engine, command, false,
+                false), initialDelay, delay, unit));
+    }
+
+    private <V> ScheduledFuture<V> track(final ScheduledFuture<V> future) {
+        TaskIdHolder.get().ifPresent(taskId -> engine.track(taskId, future));
+        return future;
+    }
+
+    /**
+     * Does not shut down the delegate, which may still be in use, once this decorator has become unreachable.
+     */
+    @Override
+    protected void finalize() {
+        // The own pool is never started, so there is nothing to shut down
+    }
+
+    // Only delegated methods without changed behavior
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public void setContinueExistingPeriodicTasksAfterShutdownPolicy(final boolean value) {
+        delegate.setContinueExistingPeriodicTasksAfterShutdownPolicy(value);
+    }
+
+    @Override
+    public boolean getContinueExistingPeriodicTasksAfterShutdownPolicy() {
+        return delegate.getContinueExistingPeriodicTasksAfterShutdownPolicy();
+    }
+
+    @Override
+    public void setExecuteExistingDelayedTasksAfterShutdownPolicy(final boolean value) {
+        delegate.setExecuteExistingDelayedTasksAfterShutdownPolicy(value);
+    }
+
+    @Override
+    public boolean getExecuteExistingDelayedTasksAfterShutdownPolicy() {
+        return delegate.getExecuteExistingDelayedTasksAfterShutdownPolicy();
+    }
+
+    @Override
+    public void setRemoveOnCancelPolicy(final boolean value) {
+        delegate.setRemoveOnCancelPolicy(value);
+    }
+
+    @Override
+    public boolean getRemoveOnCancelPolicy() {
+        return delegate.getRemoveOnCancelPolicy();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminating() {
+        return delegate.isTerminating();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void setThreadFactory(final ThreadFactory threadFactory) {
+        delegate.setThreadFactory(threadFactory);
+    }
+
+    @Override
+    public ThreadFactory getThreadFactory() {
+        return delegate.getThreadFactory();
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(final RejectedExecutionHandler handler) {
+        delegate.setRejectedExecutionHandler(handler);
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return delegate.getRejectedExecutionHandler();
+    }
+
+    @Override
+    public void setCorePoolSize(final int corePoolSize) {
+        delegate.setCorePoolSize(corePoolSize);
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return delegate.getCorePoolSize();
+    }
+
+    @Override
+    public boolean prestartCoreThread() {
+        return delegate.prestartCoreThread();
+    }
+
+    @Override
+    public int prestartAllCoreThreads() {
+        return delegate.prestartAllCoreThreads();
+    }
+
+    @Override
+    public boolean allowsCoreThreadTimeOut() {
+        return delegate.allowsCoreThreadTimeOut();
+    }
+
+    @Override
+    public void allowCoreThreadTimeOut(final boolean value) {
+        delegate.allowCoreThreadTimeOut(value);
+    }
+
+    @Override
+    public void setMaximumPoolSize(final int maximumPoolSize) {
+        delegate.setMaximumPoolSize(maximumPoolSize);
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return delegate.getMaximumPoolSize();
+    }
+
+    @Override
+    public void setKeepAliveTime(final long time, final TimeUnit unit) {
+        delegate.setKeepAliveTime(time, unit);
+    }
+
+    @Override
+    public long getKeepAliveTime(final TimeUnit unit) {
+        return delegate.getKeepAliveTime(unit);
+    }
+
+    @Override
+    public BlockingQueue<Runnable> getQueue() {
+        return delegate.getQueue();
+    }
+
+    @Override
+    public boolean remove(final Runnable task) {
+        return delegate.remove(task);
+    }
+
+    @Override
+    public void purge() {
+        delegate.purge();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return delegate.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return delegate.getActiveCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return delegate.getLargestPoolSize();
+    }
+
+    @Override
+    public long getTaskCount() {
+        return delegate.getTaskCount();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return delegate.getCompletedTaskCount();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
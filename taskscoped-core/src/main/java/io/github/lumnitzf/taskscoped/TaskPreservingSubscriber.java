@@ -0,0 +1,142 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decorator for {@link Subscriber}, providing the task preserving implementation for reactive streams.
+ * The decorator stores the current {@link TaskId} when being created, i.e. when subscribing, and wraps every signal to
+ * the delegate in the respective TaskScope.
+ * <p>
+ * The TaskScope is kept alive from the creation of this decorator until the stream is terminated by either
+ * {@link #onComplete()}, {@link #onError(Throwable)} or the {@link Subscription#cancel() cancellation} of the
+ * subscription handed to the delegate.
+ * </p>
+ * <p>
+ * Signals which are delivered on a thread that is already inside the TaskScope, e.g. a publisher emitting
+ * synchronously inside {@link Subscription#request(long)}, are passed on directly without entering the TaskScope
+ * again. A burst of signals delivered during one request is therefore handled by a single enter and exit.
+ * </p>
+ * <p>
+ * The reactive streams interfaces are semantically equivalent to {@code java.util.concurrent.Flow}, use
+ * {@code org.reactivestreams.FlowAdapters} to convert between both.
+ * </p>
+ *
+ * @param <T> the type of element signaled
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskPreservingSubscriber<T> implements Subscriber<T> {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The delegate all signals are wrapped for.
+     */
+    private final Subscriber<? super T> delegate;
+
+    /**
+     * Flag indicating if this subscriber has already been {@link TaskScopeEngine#unregister(TaskId, Object)
+     * unregistered}.
+     */
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    /**
+     * Creates a new decorator for the {@link TaskIdHolder#get() current} TaskScope.
+     *
+     * @param engine   the {@link TaskScopeEngine} to enter and exit
+     * @param delegate the subscriber to wrap
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public TaskPreservingSubscriber(final TaskScopeEngine engine, final Subscriber<? super T> delegate) {
+        this(engine, TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive), delegate);
+    }
+
+    TaskPreservingSubscriber(final TaskScopeEngine engine, final TaskId taskId,
+                             final Subscriber<? super T> delegate) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.taskId = Objects.requireNonNull(taskId, "taskId");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        engine.register(taskId, this);
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription");
+        inScope(() -> delegate.onSubscribe(new TaskPreservingSubscription(engine, taskId, subscription, this::release)));
+    }
+
+    @Override
+    public void onNext(final T item) {
+        inScope(() -> delegate.onNext(item));
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        inScope(() -> {
+            try {
+                delegate.onError(throwable);
+            } finally {
+                // Still inside the scope, so it is destroyed on exit at the earliest
+                release();
+            }
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        inScope(() -> {
+            try {
+                delegate.onComplete();
+            } finally {
+                release();
+            }
+        });
+    }
+
+    /**
+     * Releases the registration of this subscriber. Subsequent calls have no effect.
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            engine.unregister(taskId, this);
+        }
+    }
+
+    private void inScope(final Runnable signal) {
+        inScope(engine, taskId, signal);
+    }
+
+    /**
+     * Runs the {@code signal} inside the TaskScope identified by {@code taskId}. Enters the TaskScope only if the
+     * current thread is not already inside it.
+     *
+     * @param engine  the {@link TaskScopeEngine} to enter and exit
+     * @param taskId  identifying the TaskScope
+     * @param signal  to run
+     */
+    static void inScope(final TaskScopeEngine engine, final TaskId taskId, final Runnable signal) {
+        if (TaskIdHolder.isCurrent(taskId)) {
+            signal.run();
+            return;
+        }
+        final TaskId previous = engine.enter(taskId);
+        try {
+            signal.run();
+        } finally {
+            engine.exit(previous);
+        }
+    }
+}
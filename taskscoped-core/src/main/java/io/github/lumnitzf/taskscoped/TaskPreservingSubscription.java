@@ -0,0 +1,74 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.reactivestreams.Subscription;
+
+import java.util.Objects;
+
+/**
+ * Decorator for {@link Subscription}, providing the task preserving implementation for reactive streams.
+ * The decorator stores the current {@link TaskId} when being created, and wraps {@link #request(long)} and {@link
+ * #cancel()} in the respective TaskScope. Publishers emitting synchronously inside {@link #request(long)} therefore
+ * signal their subscriber inside the TaskScope.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskPreservingSubscriber
+ */
+public class TaskPreservingSubscription implements Subscription {
+
+    /**
+     * The {@link TaskId} when being created.
+     */
+    private final TaskId taskId;
+
+    /**
+     * The {@link TaskScopeEngine} to enter and exit.
+     */
+    private final TaskScopeEngine engine;
+
+    /**
+     * The delegate all calls are wrapped for.
+     */
+    private final Subscription delegate;
+
+    /**
+     * Called after the delegate has been cancelled, while still being inside the TaskScope.
+     */
+    private final Runnable onCancel;
+
+    /**
+     * Creates a new decorator for the {@link TaskIdHolder#get() current} TaskScope.
+     *
+     * @param engine   the {@link TaskScopeEngine} to enter and exit
+     * @param delegate the subscription to wrap
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     */
+    public TaskPreservingSubscription(final TaskScopeEngine engine, final Subscription delegate) {
+        this(engine, TaskIdHolder.get().orElseThrow(engine::taskScopeNotActive), delegate, () -> {
+        });
+    }
+
+    TaskPreservingSubscription(final TaskScopeEngine engine, final TaskId taskId, final Subscription delegate,
+                               final Runnable onCancel) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.taskId = Objects.requireNonNull(taskId, "taskId");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.onCancel = Objects.requireNonNull(onCancel, "onCancel");
+    }
+
+    @Override
+    public void request(final long n) {
+        TaskPreservingSubscriber.inScope(engine, taskId, () -> delegate.request(n));
+    }
+
+    @Override
+    public void cancel() {
+        TaskPreservingSubscriber.inScope(engine, taskId, () -> {
+            try {
+                delegate.cancel();
+            } finally {
+                onCancel.run();
+            }
+        });
+    }
+}
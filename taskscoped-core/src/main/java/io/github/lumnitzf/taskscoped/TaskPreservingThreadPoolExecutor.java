@@ -0,0 +1,250 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task preserving decorator for {@link ThreadPoolExecutor}, which is a {@link ThreadPoolExecutor} itself. <br>
+ * All tasks are executed by the delegate, in the same TaskScope as the invoker Thread. All other methods, including
+ * the configuration and statistics, are forwarded to the delegate. The own pool of this decorator is never used, so
+ * its protected hooks, e.g. {@link #beforeExecute(Thread, Runnable)}, are not invoked.
+ * <p>
+ * The {@link #getQueue() queue} of the delegate contains the decorated tasks, so tasks can not be {@link
+ * #remove(Runnable) removed} from it.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#preserving(ThreadPoolExecutor)
+ */
+public class TaskPreservingThreadPoolExecutor extends ThreadPoolExecutor {
+
+    /**
+     * The {@link TaskScopeEngine} managing the TaskScopes.
+     */
+    protected final TaskScopeEngine engine;
+
+    /**
+     * The decorated delegate.
+     */
+    protected final ThreadPoolExecutor delegate;
+
+    public TaskPreservingThreadPoolExecutor(final TaskScopeEngine engine, final ThreadPoolExecutor delegate) {
+        // The own pool is never started
+        super(0, 1, 0, TimeUnit.NANOSECONDS, new SynchronousQueue<>());
+        this.engine = Objects.requireNonNull(engine, "engine");
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+    }
+
+    // All submit and invoke methods end up here
+
+    @Override
+    public void execute(final Runnable command) {
+        Objects.requireNonNull(command, "command");
+        if (engine.runsInline(command, delegate)) {
+            command.run();
+            return;
+        }
+        final TaskPreservingRunnableDecorator decorated = new TaskPreservingRunnableDecorator(engine, command, true,
+                true);
+        if (command instanceof Future) {
+            // Submitted tasks are futures themselves, so they can be cancelled together with the scope
+            TaskIdHolder.get().ifPresent(taskId -> engine.track(taskId, (Future<?>) command));
+        }
+        delegate.execute(decorated);
+    }
+
+    // Overridden, so the inline policy sees the submitted task instead of its future
+
+    @Override
+    public <T> Future<T> submit(final Callable<T> task) {
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<>(task));
+        }
+        return super.submit(task);
+    }
+
+    @Override
+    public <T> Future<T> submit(final Runnable task, final T result) {
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<>(task, result));
+        }
+        return super.submit(task, result);
+    }
+
+    @Override
+    public Future<?> submit(final Runnable task) {
+        if (engine.runsInline(task, delegate)) {
+            return runInline(new FutureTask<Void>(task, null));
+        }
+        return super.submit(task);
+    }
+
+    private static <T> Future<T> runInline(final FutureTask<T> future) {
+        future.run();
+        return future;
+    }
+
+    /**
+     * Does not shut down the delegate, which may still be in use, once this decorator has become unreachable.
+     */
+    @Override
+    protected void finalize() {
+        // The own pool is never started, so there is nothing to shut down
+    }
+
+    // Only delegated methods without changed behavior
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminating() {
+        return delegate.isTerminating();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void setThreadFactory(final ThreadFactory threadFactory) {
+        delegate.setThreadFactory(threadFactory);
+    }
+
+    @Override
+    public ThreadFactory getThreadFactory() {
+        return delegate.getThreadFactory();
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(final RejectedExecutionHandler handler) {
+        delegate.setRejectedExecutionHandler(handler);
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return delegate.getRejectedExecutionHandler();
+    }
+
+    @Override
+    public void setCorePoolSize(final int corePoolSize) {
+        delegate.setCorePoolSize(corePoolSize);
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return delegate.getCorePoolSize();
+    }
+
+    @Override
+    public boolean prestartCoreThread() {
+        return delegate.prestartCoreThread();
+    }
+
+    @Override
+    public int prestartAllCoreThreads() {
+        return delegate.prestartAllCoreThreads();
+    }
+
+    @Override
+    public boolean allowsCoreThreadTimeOut() {
+        return delegate.allowsCoreThreadTimeOut();
+    }
+
+    @Override
+    public void allowCoreThreadTimeOut(final boolean value) {
+        delegate.allowCoreThreadTimeOut(value);
+    }
+
+    @Override
+    public void setMaximumPoolSize(final int maximumPoolSize) {
+        delegate.setMaximumPoolSize(maximumPoolSize);
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return delegate.getMaximumPoolSize();
+    }
+
+    @Override
+    public void setKeepAliveTime(final long time, final TimeUnit unit) {
+        delegate.setKeepAliveTime(time, unit);
+    }
+
+    @Override
+    public long getKeepAliveTime(final TimeUnit unit) {
+        return delegate.getKeepAliveTime(unit);
+    }
+
+    @Override
+    public BlockingQueue<Runnable> getQueue() {
+        return delegate.getQueue();
+    }
+
+    @Override
+    public boolean remove(final Runnable task) {
+        return delegate.remove(task);
+    }
+
+    @Override
+    public void purge() {
+        delegate.purge();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return delegate.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return delegate.getActiveCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return delegate.getLargestPoolSize();
+    }
+
+    @Override
+    public long getTaskCount() {
+        return delegate.getTaskCount();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return delegate.getCompletedTaskCount();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
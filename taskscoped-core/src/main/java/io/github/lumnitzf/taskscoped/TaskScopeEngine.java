@@ -0,0 +1,1405 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Engine managing the lifecycle of TaskScopes, independent of any container.
+ * <p>
+ * A TaskScope is bound to a {@link TaskId}. It is created when it is {@link #enter(TaskId) entered} the first time,
+ * and destroyed once no thread is inside it anymore and nothing is {@link #register(TaskId, Object) registered} for it.
+ * Tasks are executed in the TaskScope of their submitter by {@link #preserving(ExecutorService) task preserving}
+ * executors. Values are bound to the current TaskScope by {@link TaskLocal TaskLocals}, and lifecycle changes are
+ * reported to the {@link #addListener(TaskScopeListener) listeners}.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskScopeEngine {
+
+    /**
+     * The default time a worker thread retains its TaskScope at most.
+     *
+     * @see #setWorkerRetention(boolean)
+     */
+    public static final long DEFAULT_RETENTION_MILLIS = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScopeEngine.class);
+
+    /**
+     * The contextual instances of each created TaskScope. Accesses to this map and the idle state of its values must
+     * be synchronized using {@link TaskId#lock}.
+     *
+     * @see #createIfNecessary(TaskId)
+     * @see #destroy(TaskId)
+     */
+    private final Map<TaskId, TaskScopeInstances> scopeInstances = new ConcurrentHashMap<>();
+
+    /**
+     * The {@link TaskId} of the TaskScope the current thread has {@link #enter(TaskId) entered}. May differ from the
+     * {@link TaskIdHolder current} TaskId, which is already set once the TaskScope is {@link #activate() activated}.
+     */
+    private final ThreadLocal<TaskId> entered = new ThreadLocal<>();
+
+    /**
+     * Keeps track of the amount of tasks that are currently in the context. The context is destroyed once all tasks are
+     * executed. Accesses to this map and its value must be synchronized using {@link TaskId#lock}.
+     *
+     * @see #createIfNecessary(TaskId)
+     * @see #exit(TaskId)
+     */
+    private final Map<TaskId, AtomicInteger> currentRunningCount = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps track of the instances registered for the {@link TaskId}. Accesses to this map and its value must be
+     * synchronized using {@link TaskId#lock}.
+     *
+     * @see #register(TaskId, Object)
+     * @see #unregister(TaskId, Object)
+     */
+    private final Map<TaskId, Registrations> registeredInstances = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps track of the completion signals requested for a {@link TaskId}. The signals are completed once the
+     * respective TaskScope is destroyed. Accesses to this map and its value must be synchronized using
+     * {@link TaskId#lock}.
+     *
+     * @see #whenDestroyed(TaskId)
+     */
+    private final Map<TaskId, CompletableFuture<Void>> destructionSignals = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps track of the pending futures of tasks submitted to the task preserving executors for a {@link TaskId}.
+     * Accesses to this map and its value must be synchronized using {@link TaskId#lock}.
+     *
+     * @see #track(TaskId, Future)
+     * @see #cancel(TaskId, boolean)
+     */
+    private final Map<TaskId, PendingFutures> pendingFutures = new ConcurrentHashMap<>();
+
+    /**
+     * The TaskIds of the {@link #cancel(TaskId, boolean) cancelled} TaskScopes, until the TaskScopes are destroyed.
+     * Only modified while synchronized using {@link TaskId#lock}.
+     */
+    private final Set<TaskId> cancelledTasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Retains the TaskScopes of worker threads between consecutive tasks.
+     *
+     * @see #setWorkerRetention(long, TimeUnit)
+     */
+    private final WorkerRetention retention = new WorkerRetention(this::releaseRetained);
+
+    /**
+     * Decides which tasks are run inline by the submitting thread.
+     *
+     * @see #setInlinePolicy(InlinePolicy)
+     */
+    private final InlineExecution inlineExecution = new InlineExecution(this::isCancelled);
+
+    /**
+     * Spills idle TaskScopes off the heap.
+     *
+     * @see #enableSpilling(Path, int, long, TimeUnit)
+     */
+    private final IdleScopeSpiller spiller = new IdleScopeSpiller(scopeInstances);
+
+    /**
+     * Records the creation stacks and flags the suspected leaks of the TaskScopes.
+     *
+     * @see #inspect()
+     */
+    private final ScopeInspection inspection = new ScopeInspection();
+
+    /**
+     * Limits the estimated heap usage of each TaskScope.
+     *
+     * @see #setMemoryBudget(long, long)
+     */
+    private final MemoryBudget memoryBudget = new MemoryBudget(this::estimatedBytes);
+
+    /**
+     * Releases the registrations of tasks, which became unreachable without being executed.
+     *
+     * @see #setOrphanDetection(boolean)
+     */
+    private final OrphanDetector orphans = new OrphanDetector(this::unregister);
+
+    /**
+     * Keeps TaskScopes alive for other processes.
+     *
+     * @see #registerRemote(TaskId)
+     */
+    private final RemoteRegistrations remoteRegistrations = new RemoteRegistrations(this);
+
+    /**
+     * The listeners notified about lifecycle changes of the TaskScopes.
+     *
+     * @see #addListener(TaskScopeListener)
+     */
+    private final List<TaskScopeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Activate the TaskScope for this thread.
+     */
+    // Must be in sync with isActive()
+    public static void activate() {
+        LOG.debug("Activating TaskScope");
+        TaskIdHolder.getOrCreate();
+    }
+
+    /**
+     * Adds a listener, which is notified about lifecycle changes of all TaskScopes managed by this engine. The
+     * listener is invoked synchronously, by the thread causing the change. Use an {@link AsyncTaskScopeListener} to
+     * move the notification off the thread causing the change.
+     *
+     * @param listener to add
+     *
+     * @see #removeListener(TaskScopeListener)
+     */
+    public void addListener(final TaskScopeListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Removes a listener {@link #addListener(TaskScopeListener) added} before.
+     *
+     * @param listener to remove
+     */
+    public void removeListener(final TaskScopeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Runs the {@code task} inside a TaskScope. If the current thread is already inside a TaskScope, the {@code task}
+     * runs in the same TaskScope, otherwise a new TaskScope is created for it. The TaskScope stays alive until the
+     * {@code task} is finished and all tasks submitted to {@link #preserving(ExecutorService) task preserving}
+     * executors meanwhile have run.
+     *
+     * @param task to run
+     *
+     * @see #callInScope(Callable)
+     */
+    public void runInScope(final Runnable task) {
+        Objects.requireNonNull(task, "task");
+        activate();
+        final TaskId previous = enter();
+        try {
+            task.run();
+        } finally {
+            exit(previous);
+        }
+    }
+
+    /**
+     * Calls the {@code task} inside a TaskScope, just like {@link #runInScope(Runnable)}.
+     *
+     * @param task to call
+     * @param <T>  the result type of the task
+     *
+     * @return the result of the task
+     *
+     * @throws Exception if thrown by the task
+     */
+    public <T> T callInScope(final Callable<T> task) throws Exception {
+        Objects.requireNonNull(task, "task");
+        activate();
+        final TaskId previous = enter();
+        try {
+            return task.call();
+        } finally {
+            exit(previous);
+        }
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter.
+     *
+     * @param delegate the executor actually executing the tasks
+     *
+     * @return the task preserving executor
+     */
+    public ExecutorService preserving(final ExecutorService delegate) {
+        return new TaskPreservingExecutorService(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter, one task of the same
+     * TaskScope at a time in submission order.
+     *
+     * @param delegate the executor actually executing the tasks
+     *
+     * @return the task serializing executor
+     *
+     * @see TaskSerializingExecutorService
+     */
+    public ExecutorService serializing(final ExecutorService delegate) {
+        return new TaskSerializingExecutorService(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter.
+     *
+     * @param delegate the executor actually executing the tasks
+     *
+     * @return the task preserving executor
+     *
+     * @see TaskPreservingScheduledExecutorService
+     */
+    public ScheduledExecutorService preserving(final ScheduledExecutorService delegate) {
+        return new TaskPreservingScheduledExecutorService(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter. The decorator is a
+     * {@link ThreadPoolExecutor} itself, which forwards the configuration and statistics to the {@code delegate}.
+     *
+     * @param delegate the executor actually executing the tasks
+     *
+     * @return the task preserving executor
+     *
+     * @see TaskPreservingThreadPoolExecutor
+     */
+    public ThreadPoolExecutor preserving(final ThreadPoolExecutor delegate) {
+        return new TaskPreservingThreadPoolExecutor(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter. The decorator is a
+     * {@link ScheduledThreadPoolExecutor} itself, which forwards the configuration and statistics to the {@code
+     * delegate}.
+     *
+     * @param delegate the executor actually executing the tasks
+     *
+     * @return the task preserving executor
+     *
+     * @see TaskPreservingScheduledThreadPoolExecutor
+     */
+    public ScheduledThreadPoolExecutor preserving(final ScheduledThreadPoolExecutor delegate) {
+        return new TaskPreservingScheduledThreadPoolExecutor(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code delegate} to execute all its tasks in the TaskScope of their submitter. The decorator is a
+     * {@link ForkJoinPool} itself, which forwards the configuration and statistics to the {@code delegate}.
+     *
+     * @param delegate the pool actually executing the tasks
+     *
+     * @return the task preserving pool
+     *
+     * @see TaskPreservingForkJoinPool
+     */
+    public ForkJoinPool preserving(final ForkJoinPool delegate) {
+        return new TaskPreservingForkJoinPool(this, delegate);
+    }
+
+    /**
+     * Decorates the {@code handler} of a single asynchronous I/O operation, e.g. of an {@link
+     * java.nio.channels.AsynchronousSocketChannel}, to be notified in the current TaskScope. The TaskScope is kept
+     * alive until the operation has completed, without blocking a thread.
+     *
+     * @param handler the handler to notify
+     * @param <V>     the result type of the I/O operation
+     * @param <A>     the type of the object attached to the I/O operation
+     *
+     * @return the task preserving handler
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     * @see TaskPreservingCompletionHandler
+     */
+    public <V, A> CompletionHandler<V, A> preserving(final CompletionHandler<V, A> handler) {
+        return new TaskPreservingCompletionHandler<>(this, handler);
+    }
+
+    /**
+     * Enters the TaskScope {@link TaskIdHolder#setPending(TaskScopeEngine) pending} for this thread. The
+     * TaskScope must be left by {@link #exit(TaskId) exit(null)} by whoever marked it as pending.
+     */
+    void materialize() {
+        // Remove first, so that listeners notified about the entering do not materialize again
+        TaskIdHolder.removePending();
+        LOG.trace("Materializing pending task");
+        activate();
+        enter();
+    }
+
+    /**
+     * @return the instances of the TaskScope entered by the current thread, entering a pending TaskScope if necessary
+     *
+     * @throws RuntimeException as created by {@link #taskScopeNotActive()}, if no TaskScope is entered
+     */
+    TaskScopeInstances currentInstances() {
+        if (TaskIdHolder.isPending()) {
+            materialize();
+        }
+        final TaskId taskId = entered.get();
+        final TaskScopeInstances instances = taskId == null ? null : scopeInstances.get(taskId);
+        if (instances == null) {
+            throw taskScopeNotActive();
+        }
+        return instances;
+    }
+
+    /**
+     * Creates the exception thrown if a TaskScope is required, but not active. Integrations may override this method
+     * to throw the exception type expected by their environment.
+     *
+     * @return the exception to throw
+     */
+    protected RuntimeException taskScopeNotActive() {
+        return new IllegalStateException("TaskScope is not active");
+    }
+
+    /**
+     * Creates a contextual proxy for {@code instance}, which invokes it inside the current TaskScope, e.g. for
+     * callbacks handed to asynchronous APIs which do not take an executor. The proxy implements {@code intf} and
+     * {@link TaskPreservingProxy}, and keeps the TaskScope alive until it is {@link TaskPreservingProxy#release()
+     * released}.
+     *
+     * @param instance the instance to invoke
+     * @param intf     the interface of the proxy
+     * @param <T>      the type of the interface
+     *
+     * @return the contextual proxy
+     *
+     * @throws RuntimeException if the TaskScope is not active
+     * @see #contextualProxy(Object, Class[])
+     */
+    public <T> T contextualProxy(final T instance, final Class<T> intf) {
+        return intf.cast(contextualProxy(instance, new Class<?>[]{intf}));
+    }
+
+    /**
+     * Creates a contextual proxy for {@code instance}, which invokes it inside the current TaskScope. The proxy
+     * implements all {@code interfaces} and {@link TaskPreservingProxy}, and keeps the TaskScope alive until it is
+     * {@link TaskPreservingProxy#release() released}.
+     *
+     * @param instance   the instance to invoke
+     * @param interfaces the interfaces of the proxy, implemented by {@code instance}
+     *
+     * @return the contextual proxy
+     *
+     * @throws IllegalArgumentException if {@code instance} does not implement all {@code interfaces}
+     * @throws RuntimeException         if the TaskScope is not active
+     */
+    public Object contextualProxy(final Object instance, final Class<?>... interfaces) {
+        Objects.requireNonNull(instance, "instance");
+        if (interfaces.length == 0) {
+            throw new IllegalArgumentException("At least one interface is required");
+        }
+        final Class<?>[] proxyInterfaces = new Class<?>[interfaces.length + 1];
+        for (int i = 0; i < interfaces.length; i++) {
+            if (!interfaces[i].isInstance(instance)) {
+                throw new IllegalArgumentException(instance + " does not implement " + interfaces[i]);
+            }
+            proxyInterfaces[i] = interfaces[i];
+        }
+        proxyInterfaces[interfaces.length] = TaskPreservingProxy.class;
+        // Interfaces of the JDK are loaded by the bootstrap loader, which does not see this library
+        final ClassLoader loader = interfaces[0].getClassLoader() != null ? interfaces[0].getClassLoader()
+                : TaskPreservingProxy.class.getClassLoader();
+        return Proxy.newProxyInstance(loader, proxyInterfaces, new TaskPreservingInvocationHandler(this, instance));
+    }
+
+    /**
+     * @return {@code true} if the current thread has {@link #enter(TaskId) entered} a TaskScope and not yet exited it
+     */
+    boolean isEntered() {
+        return entered.get() != null;
+    }
+
+    /**
+     * @return {@code true} if a TaskScope is active for the current thread, or pending to be entered on first use
+     */
+    // Must be in sync with activate()
+    public boolean isActive() {
+        return TaskIdHolder.isPresentOrPending();
+    }
+
+    /**
+     * Enables spilling of idle TaskScopes. Once a TaskScope has been idle for the provided time, i.e. no task has been
+     * inside it while it was kept alive by {@link #register(TaskId, Object) registered} instances only, all its
+     * {@link Spillable} contextual instances are serialized into a memory-mapped file and dropped from the heap. They
+     * are restored transparently the next time the TaskScope is entered.
+     * <p>
+     * Only spillable instances which can be serialized and restored are spilled, others stay on the heap. Restored
+     * instances are copies of the original instances, see {@link Spillable} for the resulting restrictions.
+     * </p>
+     * <p>
+     * The file is created, or truncated if it already exists, and deleted once the JVM terminates. If its capacity is
+     * exhausted, further instances stay on the heap.
+     * </p>
+     *
+     * @param file        the file to map
+     * @param capacity    the capacity of the file in bytes
+     * @param idleTimeout the time a TaskScope must be idle before it is spilled
+     * @param unit        the time unit of the idle timeout
+     *
+     * @throws IOException           if the file cannot be mapped
+     * @throws IllegalStateException if spilling is already enabled
+     */
+    public void enableSpilling(final Path file, final int capacity, final long idleTimeout, final TimeUnit unit)
+            throws IOException {
+        spiller.enable(file, capacity, idleTimeout, unit);
+    }
+
+    /**
+     * Disables spilling of idle TaskScopes. All spilled instances are restored onto the heap, the thread spilling idle
+     * TaskScopes is stopped and the file is closed and deleted. Does nothing if spilling is not enabled.
+     *
+     * @see #enableSpilling(Path, int, long, TimeUnit)
+     */
+    public void disableSpilling() {
+        spiller.disable();
+    }
+
+    /**
+     * @return {@code true} if worker threads retain their TaskScope between consecutive tasks
+     *
+     * @see #setWorkerRetention(boolean)
+     */
+    public boolean isWorkerRetention() {
+        return retention.isEnabled();
+    }
+
+    /**
+     * Enables the retention of TaskScopes by worker threads for at most {@link #DEFAULT_RETENTION_MILLIS}, or
+     * disables it.
+     *
+     * @param workerRetention {@code true} to enable the retention
+     *
+     * @see #setWorkerRetention(long, TimeUnit)
+     */
+    public void setWorkerRetention(final boolean workerRetention) {
+        setWorkerRetention(workerRetention ? DEFAULT_RETENTION_MILLIS : 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables or disables the retention of TaskScopes by worker threads. Disabled by default.
+     * <p>
+     * When enabled, a worker thread which finishes a task preserving task while further tasks are still {@link
+     * #register(TaskId, Object) registered} for the same TaskScope keeps the TaskScope alive. If the next task of the
+     * worker belongs to the same TaskScope, it continues in the retained TaskScope. This avoids destroying and
+     * re-creating the TaskScope, including the notification of the listeners, between bursts of tasks.
+     * </p>
+     * <p>
+     * The retention is released once the worker enters a different TaskScope, or by a daemon thread once it has lasted
+     * for about the provided time, even if the worker does not run any further task. A retained TaskScope is still
+     * destroyed as soon as nothing but retaining workers is left inside it and nothing is registered for it anymore,
+     * even if the retaining workers are idle. Disabling the retention releases all retained TaskScopes.
+     * </p>
+     *
+     * @param timeout the time a worker retains its TaskScope at most, {@code 0} to disable the retention
+     * @param unit    the time unit of the timeout
+     *
+     * @throws IllegalArgumentException if {@code timeout} is negative
+     */
+    public void setWorkerRetention(final long timeout, final TimeUnit unit) {
+        retention.setTimeout(timeout, unit);
+    }
+
+    /**
+     * Releases all retentions which have lasted for at least {@code minNanos}.
+     */
+    private void releaseRetained(final long minNanos) {
+        final long now = System.nanoTime();
+        for (final TaskId taskId : retention.retainedTaskIds()) {
+            destroyIfPossible(taskId, id -> {
+                final int released = retention.release(id, now, minNanos);
+                if (released > 0) {
+                    currentRunningCount.get(id).addAndGet(-released);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the policy deciding which tasks are run inline by the submitting thread, {@code null} if disabled
+     */
+    public InlinePolicy getInlinePolicy() {
+        return inlineExecution.getPolicy();
+    }
+
+    /**
+     * Sets the policy deciding which tasks submitted to the task preserving executors of this engine are run inline by
+     * the submitting thread. Disabled by default.
+     * <p>
+     * An inline task runs in the TaskScope of the submitting thread, without being registered or entering the
+     * TaskScope again, and its future is completed once it is returned. Exceptions of tasks passed to {@code
+     * execute(...)} are thrown to the submitting thread. Tasks of a {@link #cancel(TaskId, boolean) cancelled}
+     * TaskScope, and tasks submitted by a thread which has not {@link #enter(TaskId) entered} a TaskScope, e.g. as it
+     * is only pending or activated, are never run inline.
+     * </p>
+     *
+     * @param inlinePolicy the policy, {@code null} to hand over all tasks
+     */
+    public void setInlinePolicy(final InlinePolicy inlinePolicy) {
+        inlineExecution.setPolicy(inlinePolicy);
+    }
+
+    /**
+     * @param task     the submitted task
+     * @param delegate the pool the task would be handed over to
+     *
+     * @return {@code true} if the task should be run inline by the current thread
+     *
+     * @see #setInlinePolicy(InlinePolicy)
+     */
+    boolean runsInline(final Object task, final Executor delegate) {
+        return inlineExecution.runsInline(entered.get(), task, delegate);
+    }
+
+    /**
+     * Enables the memory accounting of the TaskScopes, and limits the estimated heap usage of each TaskScope to {@code
+     * budget} bytes. Disabled by default.
+     * <p>
+     * The heap usage of a TaskScope is estimated by its instances, e.g. the contextual instances, and the instances
+     * {@link #register(TaskId, Object) registered} for it, e.g. the pending tasks. Instances implementing {@link
+     * MemoryFootprint} report their own size once they are added, all others are accounted with {@code
+     * defaultInstanceBytes}. Spilled instances are not on the heap, and therefore not accounted. The estimate is
+     * maintained incrementally, so checking the budget does not depend on the amount of instances.
+     * </p>
+     * <p>
+     * Once a TaskScope exceeds its budget, further tasks submitted for it to task preserving executors are rejected
+     * with a {@link RejectedExecutionException}, until it has shrunk below its budget again. This keeps a single
+     * pathological task from retaining an unbounded amount of heap. The rejections are {@link
+     * #getBudgetViolationCount() counted}.
+     * </p>
+     *
+     * @param budget               the estimated heap bytes a single TaskScope may retain, {@code 0} to disable the
+     *                             accounting
+     * @param defaultInstanceBytes the estimated heap bytes of instances not implementing {@link MemoryFootprint}
+     *
+     * @throws IllegalArgumentException if {@code budget} or {@code defaultInstanceBytes} is negative
+     */
+    public void setMemoryBudget(final long budget, final long defaultInstanceBytes) {
+        memoryBudget.set(budget, defaultInstanceBytes);
+    }
+
+    /**
+     * @return the estimated heap bytes a single TaskScope may retain, {@code 0} if disabled
+     *
+     * @see #setMemoryBudget(long, long)
+     */
+    public long getMemoryBudget() {
+        return memoryBudget.get();
+    }
+
+    /**
+     * @return the amount of tasks rejected so far, because their TaskScope exceeded the {@link #setMemoryBudget(long,
+     *         long) memory budget}
+     */
+    public long getBudgetViolationCount() {
+        return memoryBudget.violationCount();
+    }
+
+    /**
+     * Estimates the heap usage of the TaskScope identified by {@code taskId}, as described by {@link
+     * #setMemoryBudget(long, long)}.
+     *
+     * @param taskId identifying the TaskScope
+     *
+     * @return the estimated heap bytes retained by the TaskScope, {@code 0} if it is not known
+     */
+    public long estimatedBytes(final TaskId taskId) {
+        final long defaultBytes = memoryBudget.defaultInstanceBytes();
+        // Both estimates are maintained incrementally, so no lock is required to read them
+        final TaskScopeInstances instances = scopeInstances.get(taskId);
+        final Registrations registrations = registeredInstances.get(taskId);
+        return (instances == null ? 0 : instances.estimatedBytes(defaultBytes))
+                + (registrations == null ? 0 : registrations.memory.estimatedBytes(defaultBytes));
+    }
+
+    /**
+     * Rejects a task to be submitted for the TaskScope identified by {@code taskId}, if the TaskScope exceeds its
+     * {@link #setMemoryBudget(long, long) memory budget}.
+     *
+     * @param taskId identifying the TaskScope
+     *
+     * @throws RejectedExecutionException if the TaskScope exceeds its memory budget
+     */
+    void checkMemoryBudget(final TaskId taskId) {
+        memoryBudget.check(taskId);
+    }
+
+    /**
+     * Returns a snapshot of all live TaskScopes, which have been entered and not yet destroyed. TaskScopes which are
+     * only known by their {@link #register(TaskId, Object) registrations}, e.g. when {@link #attach(ByteBuffer)
+     * attached} but never entered, are not contained.
+     *
+     * @return the state of each live TaskScope
+     *
+     * @see #suspectedLeaks()
+     */
+    public List<TaskScopeInfo> inspect() {
+        releaseOrphans();
+        final List<TaskScopeInfo> infos = new ArrayList<>();
+        for (final TaskId taskId : scopeInstances.keySet()) {
+            synchronized (taskId.lock) {
+                final TaskScopeInstances instances = scopeInstances.get(taskId);
+                final AtomicInteger running = currentRunningCount.get(taskId);
+                // Otherwise the scope has been destroyed in the meantime
+                if (instances != null && running != null) {
+                    infos.add(inspection.info(taskId, instances, running.get(),
+                            registeredInstances.getOrDefault(taskId, Registrations.NONE).size(),
+                            estimatedBytes(taskId)));
+                }
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * @return a snapshot of all live TaskScopes which are older than the {@link #setLeakThreshold(long, TimeUnit)
+     *         leak threshold}
+     *
+     * @see #inspect()
+     */
+    public List<TaskScopeInfo> suspectedLeaks() {
+        final List<TaskScopeInfo> leaks = new ArrayList<>();
+        for (final TaskScopeInfo info : inspect()) {
+            if (info.isSuspectedLeak()) {
+                leaks.add(info);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * @return the amount of TaskScopes, of which 1 records its creation stack, {@code 0} if disabled
+     */
+    public int getCreationSampling() {
+        return inspection.getCreationSampling();
+    }
+
+    /**
+     * Enables the recording of the stack of the thread creating a TaskScope, for 1 in {@code oneIn} TaskScopes chosen
+     * at random. The recorded stack is {@link TaskScopeInfo#getCreationStack() reported} by {@link #inspect()}, to find
+     * the code paths creating long living TaskScopes. Disabled by default, as recording the stack is expensive.
+     *
+     * @param oneIn the amount of TaskScopes, of which 1 records its creation stack, {@code 0} to disable the sampling
+     *
+     * @throws IllegalArgumentException if {@code oneIn} is negative
+     */
+    public void setCreationSampling(final int oneIn) {
+        inspection.setCreationSampling(oneIn);
+    }
+
+    /**
+     * Sets the age, after which a live TaskScope is {@link TaskScopeInfo#isSuspectedLeak() flagged} as suspected leak
+     * by {@link #inspect()}. Disabled by default.
+     *
+     * @param threshold the age, {@code 0} to disable the flagging
+     * @param unit      the time unit of {@code threshold}
+     *
+     * @throws IllegalArgumentException if {@code threshold} is negative
+     */
+    public void setLeakThreshold(final long threshold, final TimeUnit unit) {
+        inspection.setLeakThreshold(threshold, unit);
+    }
+
+    /**
+     * @param unit the time unit of the result
+     *
+     * @return the age, after which a TaskScope is flagged as suspected leak, {@code 0} if disabled
+     */
+    public long getLeakThreshold(final TimeUnit unit) {
+        return inspection.getLeakThreshold(unit);
+    }
+
+    /**
+     * Enables or disables the detection of orphaned tasks. Disabled by default.
+     * <p>
+     * A task submitted to a task preserving executor keeps its TaskScope alive until it runs. If the executor drops
+     * the task without running or cancelling it, e.g. a custom executor silently discarding tasks, the TaskScope would
+     * never be destroyed. While enabled, the registrations of task preserving tasks only reference their task via a
+     * {@link PhantomReference}. Once the task has become unreachable without being executed, its registration is
+     * released, and the TaskScope destroyed if nothing else is inside it or registered for it.
+     * </p>
+     * <p>
+     * The unreachable tasks are detected after the garbage collector found them, and released by a daemon thread,
+     * which runs while the detection is enabled. Only tasks registered while enabled are tracked. Tracked tasks which
+     * become unreachable after disabling the detection are released by the next {@link #inspect() inspection}, or
+     * explicitly by {@link #releaseOrphans()}.
+     * </p>
+     *
+     * @param orphanDetection {@code true} to detect orphaned tasks
+     */
+    public void setOrphanDetection(final boolean orphanDetection) {
+        orphans.setEnabled(orphanDetection);
+    }
+
+    /**
+     * @return {@code true} if orphaned tasks are detected
+     *
+     * @see #setOrphanDetection(boolean)
+     */
+    public boolean isOrphanDetection() {
+        return orphans.isEnabled();
+    }
+
+    /**
+     * @return the amount of registrations released so far, because their tasks became unreachable without being
+     *         executed
+     */
+    public long getReleasedOrphanCount() {
+        return orphans.releasedCount();
+    }
+
+    /**
+     * Releases the registrations of all tasks, which have been found unreachable without being executed by the
+     * garbage collector so far.
+     *
+     * @return the amount of released registrations
+     *
+     * @see #setOrphanDetection(boolean)
+     */
+    public int releaseOrphans() {
+        return orphans.releaseOrphans();
+    }
+
+    /**
+     * {@link #register(TaskId, Object) Registers} a task preserving task, which must be {@link
+     * #unregisterTask(TaskId, PendingWork) unregistered} by the returned registration. If the {@link
+     * #setOrphanDetection(boolean) orphan detection} is enabled, the registration does not keep the {@code task}
+     * reachable.
+     *
+     * @param taskId identifying the TaskScope
+     * @param task   to be registered
+     *
+     * @return the registration
+     */
+    PendingWork registerTask(final TaskId taskId, final PendingWork task) {
+        final PendingWork registration = orphans.track(taskId, task);
+        register(taskId, registration);
+        return registration;
+    }
+
+    /**
+     * Removes a registration returned by {@link #registerTask(TaskId, PendingWork)}. Must be invoked while the task is still
+     * reachable, e.g. by the task itself.
+     *
+     * @param taskId       identifying the TaskScope
+     * @param registration to be removed
+     */
+    void unregisterTask(final TaskId taskId, final PendingWork registration) {
+        // The task has been executed, so it must not be detected as orphan
+        orphans.untrack(registration);
+        unregister(taskId, registration);
+    }
+
+    /**
+     * Registers the {@code instance} to be executed in the TaskScope identified by {@code taskId} some time in the
+     * future. As long as instances are registered for a {@link TaskId}, the context is not destroyed.
+     * <p>
+     * {@link PendingWork} registered for a {@link #cancel(TaskId, boolean) cancelled} TaskScope is cancelled instead
+     * of being registered.
+     * </p>
+     *
+     * @param taskId   identifying the TaskScope
+     * @param instance to be registered
+     *
+     * @see #unregister(TaskId, Object)
+     */
+    public void register(final TaskId taskId, final Object instance) {
+        Objects.requireNonNull(taskId, "taskId");
+        Objects.requireNonNull(instance, "instance");
+        LOG.debug("Registering {} for task {}", instance, taskId);
+        synchronized (taskId.lock) {
+            if (instance instanceof PendingWork && cancelledTasks.contains(taskId)) {
+                ((PendingWork) instance).cancel();
+                return;
+            }
+            registeredInstances.computeIfAbsent(taskId, ignored -> new Registrations()).add(instance);
+        }
+    }
+
+    /**
+     * Removes the {@code instance} from the {@link #register(TaskId, Object) registered} instances.
+     *
+     * @param taskId   identifying the TaskScope
+     * @param instance to be removed
+     *
+     * @see #register(TaskId, Object)
+     */
+    public void unregister(final TaskId taskId, final Object instance) {
+        Objects.requireNonNull(taskId, "taskId");
+        Objects.requireNonNull(instance, "instance");
+        LOG.debug("Unregistering {} from task {}", instance, taskId);
+        destroyIfPossible(taskId, id -> registeredInstances.getOrDefault(id, Registrations.NONE).remove(instance));
+    }
+
+    /**
+     * Cancels the TaskScope identified by {@code taskId}, e.g. once one task of a fan-out has failed fatally and the
+     * results of the other tasks are not required anymore.
+     * <p>
+     * All pending futures of tasks submitted to a task preserving executor for the TaskScope are {@link
+     * Future#cancel(boolean) cancelled}, and the registrations of all pending work, e.g. task preserving tasks or
+     * outstanding I/O operations, are released. Tasks which are executed anyway, e.g. as the executor does not support
+     * cancellation, do not enter the TaskScope again, but are skipped. The TaskScope is destroyed as soon as all tasks
+     * currently running inside it have exited, which happens promptly if {@code mayInterruptIfRunning} is set and the
+     * tasks respond to interruption.
+     * </p>
+     * <p>
+     * Registrations of other instances, e.g. of {@link TaskPreservingSubscriber subscribers}, {@link
+     * TaskPreservingProxy contextual proxies} or {@link #registerRemote(TaskId) remote processes}, are kept. A
+     * cancelled TaskScope stays cancelled until it is destroyed, further task preserving tasks submitted for it are
+     * cancelled immediately. Once destroyed, the same TaskId may be entered again, e.g. by a remote process, which
+     * creates a new TaskScope that is not cancelled.
+     * </p>
+     *
+     * @param taskId                identifying the TaskScope
+     * @param mayInterruptIfRunning {@code true} if the threads executing the tasks should be interrupted
+     *
+     * @return {@code true} if the TaskScope has been cancelled by this invocation, {@code false} if it was already
+     *         cancelled or is not known
+     *
+     * @see #isCancelled(TaskId)
+     */
+    public boolean cancel(final TaskId taskId, final boolean mayInterruptIfRunning) {
+        Objects.requireNonNull(taskId, "taskId");
+        final List<Future<?>> futures;
+        synchronized (taskId.lock) {
+            if (cancelledTasks.contains(taskId) || isUnknown(taskId)) {
+                return false;
+            }
+            cancelledTasks.add(taskId);
+            final PendingFutures pending = pendingFutures.remove(taskId);
+            futures = pending == null ? Collections.emptyList() : new ArrayList<>(pending.futures);
+        }
+        LOG.debug("Cancelling task {} with {} pending futures", taskId, futures.size());
+        futures.forEach(future -> future.cancel(mayInterruptIfRunning));
+        // Cancelled work never runs, so its registrations would otherwise keep the scope alive forever
+        destroyIfPossible(taskId, id -> registeredInstances.getOrDefault(id, Registrations.NONE).removeIf(
+                instance -> {
+                    if (instance instanceof PendingWork) {
+                        ((PendingWork) instance).cancel();
+                        return true;
+                    }
+                    return false;
+                }));
+        return true;
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     *
+     * @return {@code true} if the TaskScope has been {@link #cancel(TaskId, boolean) cancelled} and not yet destroyed
+     */
+    public boolean isCancelled(final TaskId taskId) {
+        return cancelledTasks.contains(taskId);
+    }
+
+    /**
+     * Keeps track of the {@code future} of a task submitted for the TaskScope identified by {@code taskId}, so that it
+     * can be {@link #cancel(TaskId, boolean) cancelled} together with the TaskScope. If the TaskScope is already
+     * cancelled, the {@code future} is cancelled immediately.
+     *
+     * @param taskId identifying the TaskScope
+     * @param future of the submitted task
+     */
+    void track(final TaskId taskId, final Future<?> future) {
+        synchronized (taskId.lock) {
+            if (!cancelledTasks.contains(taskId)) {
+                // Otherwise the task has already finished, and the scope was destroyed
+                if (!isUnknown(taskId)) {
+                    pendingFutures.computeIfAbsent(taskId, ignored -> new PendingFutures()).add(future);
+                }
+                return;
+            }
+        }
+        future.cancel(false);
+    }
+
+    /**
+     * Adds a remote registration for the TaskScope identified by {@code taskId}. As long as remote registrations are
+     * present, the TaskScope is not destroyed, just like for {@link #register(TaskId, Object) registered}
+     * instances. Each remote registration must be released by {@link #unregisterRemote(TaskId)}.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    public void registerRemote(final TaskId taskId) {
+        remoteRegistrations.register(taskId);
+    }
+
+    /**
+     * Removes a remote registration added by {@link #registerRemote(TaskId)}. Once the last remote registration is
+     * removed, the TaskScope may be destroyed.
+     *
+     * @param taskId identifying the TaskScope
+     *
+     * @throws IllegalStateException if no remote registration is present for the TaskScope
+     */
+    public void unregisterRemote(final TaskId taskId) {
+        remoteRegistrations.unregister(taskId);
+    }
+
+    /**
+     * Exports the TaskScope identified by {@code taskId} to a different process. {@link TaskId#writeTo(ByteBuffer)
+     * Writes} the TaskId to {@code target} and adds a {@link #registerRemote(TaskId) remote registration}, which keeps
+     * the TaskScope alive until it is {@link #release(ByteBuffer) released} by the receiving process.
+     *
+     * @param taskId identifying the TaskScope
+     * @param target buffer to write the {@link TaskId#BYTES} bytes of the TaskId to
+     *
+     * @see #attach(ByteBuffer)
+     */
+    public void export(final TaskId taskId, final ByteBuffer target) {
+        remoteRegistrations.export(taskId, target);
+    }
+
+    /**
+     * Releases a TaskScope previously {@link #export(TaskId, ByteBuffer) exported} by this process, once the receiving
+     * process has finished its work. Reads the TaskId from {@code source} and removes one {@link
+     * #registerRemote(TaskId) remote registration}.
+     *
+     * @param source buffer to read the {@link TaskId#BYTES} bytes of the TaskId from
+     *
+     * @throws IllegalStateException if the TaskScope has not been exported
+     */
+    public void release(final ByteBuffer source) {
+        remoteRegistrations.release(source);
+    }
+
+    /**
+     * Attaches this process to a TaskScope {@link #export(TaskId, ByteBuffer) exported} by a different process.
+     * Reads the TaskId from {@code source} and adds a {@link #registerRemote(TaskId) remote registration} for it, so
+     * that the local TaskScope is kept alive until it is {@link #detach(TaskId) detached}. Attaching the same TaskId
+     * multiple times returns the same instance, which may then be {@link #enter(TaskId) entered}.
+     * <p>
+     * The local TaskScope is independent of the one of the exporting process, both only share the TaskId. The
+     * exporting process must be notified, once all local work is done, e.g. by sending the TaskId back once {@link
+     * #whenDestroyed(TaskId) the local TaskScope is destroyed}.
+     * </p>
+     *
+     * @param source buffer to read the {@link TaskId#BYTES} bytes of the TaskId from
+     *
+     * @return the local TaskId
+     */
+    public TaskId attach(final ByteBuffer source) {
+        return remoteRegistrations.attach(source);
+    }
+
+    /**
+     * Detaches this process from a TaskScope {@link #attach(ByteBuffer) attached} before, by removing the {@link
+     * #registerRemote(TaskId) remote registration}.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    public void detach(final TaskId taskId) {
+        unregisterRemote(taskId);
+    }
+
+    /**
+     * Returns a {@link CompletionStage} which is completed once the TaskScope identified by {@code taskId} is
+     * destroyed. If no such TaskScope is currently known, neither entered nor {@link #register(TaskId, Object)
+     * registered}, the returned stage is already completed.
+     * <p>
+     * The stage is completed by the thread destroying the TaskScope, after the {@link
+     * TaskScopeListener#destroyed(TaskId) listeners} have been notified. Dependent actions which must not run on that
+     * thread should use the {@code ...Async} methods of the stage.
+     * </p>
+     *
+     * @param taskId identifying the TaskScope
+     *
+     * @return stage completing once the TaskScope is destroyed
+     *
+     * @see #awaitQuiescence(TaskId, long, TimeUnit)
+     */
+    public CompletionStage<Void> whenDestroyed(final TaskId taskId) {
+        Objects.requireNonNull(taskId, "taskId");
+        final CompletableFuture<Void> signal;
+        synchronized (taskId.lock) {
+            if (isUnknown(taskId)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            signal = destructionSignals.computeIfAbsent(taskId, ignored -> new CompletableFuture<>());
+        }
+        // Do not expose the signal itself, as it could otherwise be completed by the caller
+        return signal.thenApply(ignored -> null);
+    }
+
+    /**
+     * Blocks until the TaskScope identified by {@code taskId} is destroyed, or the timeout occurs, or the current
+     * thread is interrupted, whichever happens first.
+     *
+     * @param taskId  identifying the TaskScope
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit of the timeout argument
+     *
+     * @return {@code true} if the TaskScope was destroyed and {@code false} if the timeout elapsed before
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @see #whenDestroyed(TaskId)
+     */
+    public boolean awaitQuiescence(final TaskId taskId, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        Objects.requireNonNull(unit, "unit");
+        try {
+            whenDestroyed(taskId).toCompletableFuture().get(timeout, unit);
+            return true;
+        } catch (final TimeoutException e) {
+            return false;
+        } catch (final ExecutionException e) {
+            // The signals are never completed exceptionally
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Enter or create the task scope identified by the {@link TaskIdHolder#getOrCreate() current} task id.
+     *
+     * @return id of the previous task scope
+     */
+    public TaskId enter() {
+        return enter(TaskIdHolder.getOrCreate());
+    }
+
+    /**
+     * Enter or create the task scope identified by {@code taskId}.
+     *
+     * @param taskId identifying the task scope to enter
+     *
+     * @return id of the previous task scope
+     *
+     * @see #exit(TaskId)
+     */
+    public TaskId enter(final TaskId taskId) {
+        Objects.requireNonNull(taskId, "taskId");
+        final boolean resumed = resumeRetained(taskId);
+        TaskIdHolder.set(taskId);
+        final TaskId previous = entered.get();
+        entered.set(taskId);
+        if (!resumed) {
+            createIfNecessary(taskId);
+        }
+        LOG.trace("Entered task {}, previous = {}", taskId, previous);
+        if (previous != taskId) {
+            fireEnter(taskId);
+        }
+        return previous;
+    }
+
+    /**
+     * Exit the current task scope and destroy it if no one is in it and no one is {@link #register(TaskId, Object)
+     * registered} for it. Re-enter the {@code previous} task scope.
+     *
+     * @param previous identifier of the previous task scope. May be {@code null}
+     */
+    public void exit(final TaskId previous) {
+        final TaskId taskId = TaskIdHolder.get().orElseThrow(this::taskScopeNotActive);
+        // Fire exit event before exiting the context
+        if (previous != taskId) {
+            fireExit(taskId);
+        }
+        leave(previous);
+        LOG.trace("Exited task {}, previous = {}", taskId, previous);
+        destroyIfPossible(taskId, id -> currentRunningCount.get(id).decrementAndGet());
+        if (previous != null) {
+            TaskIdHolder.set(previous);
+        } else {
+            TaskIdHolder.remove();
+        }
+    }
+
+    /**
+     * Exit the current task scope of a worker thread. If {@link #setWorkerRetention(boolean) worker retention} is
+     * enabled, this is the outermost task scope of the thread, and further instances are {@link #register(TaskId,
+     * Object) registered} for it, the task scope is retained by the current thread instead of being left. Otherwise
+     * behaves as {@link #exit(TaskId)}.
+     * <p>
+     * A retained task scope is not active on the current thread, but kept alive until the thread enters the next
+     * task scope, the retention times out, or nothing but retaining threads are left inside it.
+     * </p>
+     *
+     * @param previous identifier of the previous task scope. May be {@code null}
+     */
+    void exitWorker(final TaskId previous) {
+        if (!retention.isEnabled() || previous != null) {
+            exit(previous);
+            return;
+        }
+        final TaskId taskId = TaskIdHolder.get().orElseThrow(this::taskScopeNotActive);
+        fireExit(taskId);
+        leave(previous);
+        // Hack to know that the scope was retained, as it must be decided in the synchronized block
+        final boolean[] retain = {false};
+        destroyIfPossible(taskId, id -> {
+            // If nothing more is to do for this scope, it must be destroyed as soon as possible
+            retain[0] = !registeredInstances.getOrDefault(id, Registrations.NONE).isEmpty();
+            if (retain[0]) {
+                retention.retain(id);
+            } else {
+                currentRunningCount.get(id).decrementAndGet();
+            }
+        });
+        if (retain[0]) {
+            LOG.trace("Exited and retained task {}", taskId);
+        } else {
+            LOG.trace("Exited task {}, previous = {}", taskId, previous);
+        }
+        TaskIdHolder.remove();
+    }
+
+    /**
+     * Resumes the task scope retained by the current thread, if it is identified by {@code taskId}. Releases it
+     * otherwise.
+     *
+     * @param taskId identifying the task scope to enter
+     *
+     * @return {@code true} if the current thread continues inside the retained task scope
+     */
+    private boolean resumeRetained(final TaskId taskId) {
+        final TaskId retainedId = retention.takeRetained();
+        if (retainedId == null) {
+            return false;
+        }
+        if (retainedId == taskId) {
+            // The retention is gone, if the scope was destroyed in the meantime
+            if (retention.release(taskId)) {
+                LOG.trace("Resumed retained task {}", taskId);
+                return true;
+            }
+            return false;
+        }
+        LOG.trace("Releasing retained task {}", retainedId);
+        destroyIfPossible(retainedId, id -> {
+            if (retention.release(id)) {
+                currentRunningCount.get(id).decrementAndGet();
+            }
+        });
+        return false;
+    }
+
+    private void leave(final TaskId previous) {
+        if (previous != null) {
+            entered.set(previous);
+        } else {
+            entered.remove();
+        }
+    }
+
+    private void createIfNecessary(final TaskId taskId) {
+        // Hack to know that the supplier was called, to fire the initialized event outside of the synchronized block
+        final boolean[] created = {false};
+        synchronized (taskId.lock) {
+            final int running = currentRunningCount.computeIfAbsent(taskId, ignored -> {
+                created[0] = true;
+                scopeInstances.put(taskId, new TaskScopeInstances(inspection.sampleCreationStack()));
+                return new AtomicInteger(0);
+            }).incrementAndGet();
+            if (running == 1 && !created[0]) {
+                scopeInstances.get(taskId).markBusy(spiller.store());
+            }
+        }
+        if (created[0]) {
+            LOG.debug("Created task {}", taskId);
+            fireInitialized(taskId);
+        }
+    }
+
+    private void destroyIfPossible(final TaskId taskId, final Consumer<TaskId> synchronizedCleanup) {
+        boolean destroyed = false;
+        final CompletableFuture<Void> signal;
+        synchronized (taskId.lock) {
+            synchronizedCleanup.accept(taskId);
+            if (canDestroy(taskId)) {
+                destroy(taskId);
+                destroyed = true;
+            } else {
+                scheduleSpillIfIdle(taskId);
+            }
+            // A scope which only had registered instances is never created, but still finished once unregistered
+            if (isUnknown(taskId)) {
+                registeredInstances.remove(taskId);
+                pendingFutures.remove(taskId);
+                cancelledTasks.remove(taskId);
+                remoteRegistrations.forget(taskId);
+                signal = destructionSignals.remove(taskId);
+            } else {
+                signal = null;
+            }
+        }
+        if (destroyed) {
+            LOG.debug("Destroyed task {}", taskId);
+            fireDestroyed(taskId);
+        }
+        if (signal != null) {
+            signal.complete(null);
+        }
+    }
+
+    private void scheduleSpillIfIdle(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            final AtomicInteger currentRunning = currentRunningCount.get(taskId);
+            if (currentRunning != null && currentRunning.get() == 0) {
+                spiller.scheduleIfIdle(taskId, scopeInstances.get(taskId));
+            }
+        }
+    }
+
+    private boolean canDestroy(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            final AtomicInteger currentRunning = currentRunningCount.get(taskId);
+            // Retaining threads are only waiting for more work, so they do not keep the scope alive on their own
+            final int retaining = retention.count(taskId);
+            // If currentRunning is null, we do not have a created scope (only registered instances) so we cannot destroy it
+            return currentRunning != null && currentRunning.get() == retaining && registeredInstances.getOrDefault(
+                    taskId, Registrations.NONE).isEmpty();
+        }
+    }
+
+    private boolean isUnknown(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            return !currentRunningCount.containsKey(taskId) && registeredInstances.getOrDefault(taskId,
+                    Registrations.NONE).isEmpty();
+        }
+    }
+
+    private void destroy(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            currentRunningCount.remove(taskId);
+            registeredInstances.remove(taskId);
+            pendingFutures.remove(taskId);
+            cancelledTasks.remove(taskId);
+            retention.remove(taskId);
+            final TaskScopeInstances instances = scopeInstances.remove(taskId);
+            if (instances != null) {
+                instances.destroy(spiller.store());
+            }
+        }
+    }
+
+    private void fireDestroyed(final TaskId taskId) {
+        listeners.forEach(listener -> listener.destroyed(taskId));
+    }
+
+    private void fireInitialized(final TaskId taskId) {
+        listeners.forEach(listener -> listener.initialized(taskId));
+    }
+
+    private void fireEnter(final TaskId taskId) {
+        listeners.forEach(listener -> listener.entered(taskId));
+    }
+
+    private void fireExit(final TaskId taskId) {
+        listeners.forEach(listener -> listener.exiting(taskId));
+    }
+
+    /**
+     * The futures of the tasks submitted for a single TaskScope. Futures of finished tasks are removed lazily, once
+     * the amount of futures has doubled since the last removal, so that adding a future is amortized constant.
+     */
+    private static class PendingFutures {
+
+        private static final int MIN_PRUNE_SIZE = 16;
+
+        /**
+         * Held weakly, so that futures dropped by their executor do not keep their tasks reachable for the {@link
+         * #setOrphanDetection(boolean) orphan detection}.
+         */
+        private final Set<Future<?>> futures = Collections.newSetFromMap(new WeakHashMap<>());
+
+        private int pruneAt = MIN_PRUNE_SIZE;
+
+        private void add(final Future<?> future) {
+            if (futures.size() >= pruneAt) {
+                futures.removeIf(Future::isDone);
+                pruneAt = Math.max(MIN_PRUNE_SIZE, futures.size() * 2);
+            }
+            futures.add(future);
+        }
+    }
+
+    /**
+     * The instances {@link #register(TaskId, Object) registered} for a single TaskScope, together with their
+     * {@link #setMemoryBudget(long, long) accounted} heap usage. Accesses must be synchronized using {@link
+     * TaskId#lock}, except for reading the estimate.
+     */
+    private static final class Registrations {
+
+        /**
+         * Used instead of a missing entry, must never be modified.
+         */
+        private static final Registrations NONE = new Registrations();
+
+        /**
+         * The registered instances, and the size they are accounted with.
+         */
+        private final Map<Object, Long> instances = new HashMap<>();
+
+        private final MemoryAccount memory = new MemoryAccount();
+
+        private void add(final Object instance) {
+            if (!instances.containsKey(instance)) {
+                instances.put(instance, memory.add(instance));
+            }
+        }
+
+        private boolean remove(final Object instance) {
+            final Long size = instances.remove(instance);
+            if (size == null) {
+                return false;
+            }
+            memory.remove(size);
+            return true;
+        }
+
+        private boolean removeIf(final Predicate<Object> filter) {
+            final Iterator<Map.Entry<Object, Long>> iterator = instances.entrySet().iterator();
+            boolean removed = false;
+            while (iterator.hasNext()) {
+                final Map.Entry<Object, Long> entry = iterator.next();
+                if (filter.test(entry.getKey())) {
+                    iterator.remove();
+                    memory.remove(entry.getValue());
+                    removed = true;
+                }
+            }
+            return removed;
+        }
+
+        private boolean isEmpty() {
+            return instances.isEmpty();
+        }
+
+        private int size() {
+            return instances.size();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+
+/**
+ * A lifecycle change of a TaskScope, as delivered by an {@link AsyncTaskScopeListener}.
+ *
+ * @author Fritz Lumnitz
+ */
+public final class TaskScopeEvent {
+
+    /**
+     * The kind of lifecycle change, one for each method of {@link TaskScopeListener}.
+     */
+    public enum Type {
+        INITIALIZED, ENTERED, EXITING, DESTROYED
+    }
+
+    private final Type type;
+
+    private final TaskId taskId;
+
+    private final long timestamp;
+
+    private final String threadName;
+
+    TaskScopeEvent(final Type type, final TaskId taskId) {
+        this.type = Objects.requireNonNull(type, "type");
+        this.taskId = Objects.requireNonNull(taskId, "taskId");
+        this.timestamp = System.nanoTime();
+        this.threadName = Thread.currentThread().getName();
+    }
+
+    /**
+     * @return the kind of lifecycle change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return identifying the TaskScope
+     */
+    public TaskId getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the change
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the name of the thread causing the change
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Invokes the method of {@code listener} corresponding to the {@link #getType() type} of this event.
+     *
+     * @param listener to notify
+     */
+    public void dispatchTo(final TaskScopeListener listener) {
+        switch (type) {
+            case INITIALIZED:
+                listener.initialized(taskId);
+                break;
+            case ENTERED:
+                listener.entered(taskId);
+                break;
+            case EXITING:
+                listener.exiting(taskId);
+                break;
+            case DESTROYED:
+                listener.destroyed(taskId);
+                break;
+            default:
+                throw new IllegalStateException("Unknown type " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TaskScopeEvent{" +
+                "type=" + type +
+                ", taskId=" + taskId +
+                ", timestamp=" + timestamp +
+                ", threadName='" + threadName + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Snapshot of the state of a live TaskScope, as returned by {@link TaskScopeEngine#inspect()}.
+ *
+ * @author Fritz Lumnitz
+ */
+public final class TaskScopeInfo {
+
+    private final TaskId taskId;
+
+    private final Instant created;
+
+    private final Duration age;
+
+    private final int runningCount;
+
+    private final int pendingCount;
+
+    private final List<String> instanceTypes;
+
+    private final StackTraceElement[] creationStack;
+
+    private final long estimatedBytes;
+
+    private final boolean suspectedLeak;
+
+    TaskScopeInfo(final TaskId taskId, final Instant created, final Duration age, final int runningCount,
+                  final int pendingCount, final List<String> instanceTypes, final StackTraceElement[] creationStack,
+                  final long estimatedBytes, final boolean suspectedLeak) {
+        this.taskId = taskId;
+        this.created = created;
+        this.age = age;
+        this.runningCount = runningCount;
+        this.pendingCount = pendingCount;
+        this.instanceTypes = Collections.unmodifiableList(instanceTypes);
+        this.creationStack = creationStack;
+        this.estimatedBytes = estimatedBytes;
+        this.suspectedLeak = suspectedLeak;
+    }
+
+    /**
+     * @return identifying the TaskScope
+     */
+    public TaskId getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * @return the creation time of the TaskScope
+     */
+    public Instant getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the time since the creation of the TaskScope
+     */
+    public Duration getAge() {
+        return age;
+    }
+
+    /**
+     * @return the amount of threads currently inside the TaskScope, including worker threads retaining it
+     */
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return the amount of instances {@link TaskScopeEngine#register(TaskId, Object) registered} for the TaskScope,
+     *         e.g. tasks waiting for their execution
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the class names of the instances stored in the TaskScope, e.g. the contextual instances
+     */
+    public List<String> getInstanceTypes() {
+        return instanceTypes;
+    }
+
+    /**
+     * @return the stack of the thread creating the TaskScope, if its creation was {@link
+     *         TaskScopeEngine#setCreationSampling(int) sampled}
+     */
+    public Optional<StackTraceElement[]> getCreationStack() {
+        return Optional.ofNullable(creationStack).map(StackTraceElement[]::clone);
+    }
+
+    /**
+     * @return the estimated heap bytes retained by the TaskScope, {@code 0} if the {@link
+     *         TaskScopeEngine#setMemoryBudget(long, long) memory accounting} is disabled and nothing reports its size
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return {@code true} if the TaskScope is older than the {@link TaskScopeEngine#setLeakThreshold(long,
+     *         java.util.concurrent.TimeUnit) leak threshold}
+     */
+    public boolean isSuspectedLeak() {
+        return suspectedLeak;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskScopeInfo{" +
+                "taskId=" + taskId +
+                ", created=" + created +
+                ", age=" + age +
+                ", runningCount=" + runningCount +
+                ", pendingCount=" + pendingCount +
+                ", instanceTypes=" + instanceTypes +
+                ", estimatedBytes=" + estimatedBytes +
+                ", suspectedLeak=" + suspectedLeak +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the live TaskScopes of a {@link TaskScopeEngine} via JMX, to find the code paths which keep TaskScopes
+ * alive. Each live TaskScope is listed with its age, the amount of running threads and pending tasks, and the types of
+ * its instances. TaskScopes older than the leak threshold are flagged as suspected leaks, and the creation stack of
+ * sampled TaskScopes can be retrieved.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#inspect()
+ */
+public class TaskScopeInspector implements TaskScopeInspectorMBean {
+
+    /**
+     * The JMX domain of the inspectors.
+     */
+    public static final String DOMAIN = "io.github.lumnitzf.taskscoped";
+
+    private final TaskScopeEngine engine;
+
+    public TaskScopeInspector(final TaskScopeEngine engine) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+    }
+
+    /**
+     * Registers an inspector for {@code engine} at the platform {@link MBeanServer}.
+     *
+     * @param engine to inspect
+     *
+     * @return the name of the registered inspector, to {@link MBeanServer#unregisterMBean(ObjectName) unregister} it
+     *         once the engine is not used anymore
+     *
+     * @throws JMException if the inspector could not be registered
+     */
+    public static ObjectName register(final TaskScopeEngine engine) throws JMException {
+        final ObjectName name = new ObjectName(DOMAIN + ":type=TaskScopeInspector,engine="
+                + Integer.toHexString(System.identityHashCode(engine)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new TaskScopeInspector(engine), name);
+        return name;
+    }
+
+    @Override
+    public int getLiveScopeCount() {
+        return engine.inspect().size();
+    }
+
+    @Override
+    public String[] listScopes() {
+        return describe(engine.inspect());
+    }
+
+    @Override
+    public String[] listSuspectedLeaks() {
+        return describe(engine.suspectedLeaks());
+    }
+
+    @Override
+    public String[] getCreationStack(final String taskId) {
+        return engine.inspect().stream()
+                .filter(info -> info.getTaskId().getValue().toString().equals(taskId))
+                .findAny()
+                .flatMap(TaskScopeInfo::getCreationStack)
+                .map(stack -> Arrays.stream(stack).map(StackTraceElement::toString).toArray(String[]::new))
+                .orElse(new String[0]);
+    }
+
+    @Override
+    public int getCreationSampling() {
+        return engine.getCreationSampling();
+    }
+
+    @Override
+    public void setCreationSampling(final int oneIn) {
+        engine.setCreationSampling(oneIn);
+    }
+
+    @Override
+    public long getLeakThresholdSeconds() {
+        return engine.getLeakThreshold(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void setLeakThresholdSeconds(final long seconds) {
+        engine.setLeakThreshold(seconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public long getBudgetViolationCount() {
+        return engine.getBudgetViolationCount();
+    }
+
+    private static String[] describe(final List<TaskScopeInfo> infos) {
+        return infos.stream().map(info -> info.getTaskId().getValue()
+                + " age=" + info.getAge()
+                + " running=" + info.getRunningCount()
+                + " pending=" + info.getPendingCount()
+                + " types=" + info.getInstanceTypes()
+                + " bytes=" + info.getEstimatedBytes()
+                + (info.getCreationStack().isPresent() ? " sampled" : "")
+                + (info.isSuspectedLeak() ? " SUSPECTED LEAK" : ""))
+                .toArray(String[]::new);
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * JMX management interface of the {@link TaskScopeInspector}.
+ *
+ * @author Fritz Lumnitz
+ */
+public interface TaskScopeInspectorMBean {
+
+    /**
+     * @return the amount of live TaskScopes
+     */
+    int getLiveScopeCount();
+
+    /**
+     * @return a description of each live TaskScope, including its age, running and pending counts and instance types
+     */
+    String[] listScopes();
+
+    /**
+     * @return a description of each live TaskScope which is older than the {@link #getLeakThresholdSeconds() leak
+     *         threshold}
+     */
+    String[] listSuspectedLeaks();
+
+    /**
+     * @param taskId the value of the {@link TaskId}
+     *
+     * @return the stack of the thread creating the TaskScope, empty if the TaskScope is not live or its creation was
+     *         not sampled
+     */
+    String[] getCreationStack(String taskId);
+
+    /**
+     * @return the amount of TaskScopes, of which 1 records its creation stack, {@code 0} if disabled
+     *
+     * @see TaskScopeEngine#setCreationSampling(int)
+     */
+    int getCreationSampling();
+
+    /**
+     * @param oneIn the amount of TaskScopes, of which 1 records its creation stack, {@code 0} to disable
+     *
+     * @see TaskScopeEngine#setCreationSampling(int)
+     */
+    void setCreationSampling(int oneIn);
+
+    /**
+     * @return the age in seconds, after which a TaskScope is flagged as suspected leak, {@code 0} if disabled
+     *
+     * @see TaskScopeEngine#setLeakThreshold(long, java.util.concurrent.TimeUnit)
+     */
+    long getLeakThresholdSeconds();
+
+    /**
+     * @param seconds the age in seconds, after which a TaskScope is flagged as suspected leak, {@code 0} to disable
+     *
+     * @see TaskScopeEngine#setLeakThreshold(long, java.util.concurrent.TimeUnit)
+     */
+    void setLeakThresholdSeconds(long seconds);
+
+    /**
+     * @return the amount of tasks rejected so far, because their TaskScope exceeded its memory budget
+     *
+     * @see TaskScopeEngine#setMemoryBudget(long, long)
+     */
+    long getBudgetViolationCount();
+}
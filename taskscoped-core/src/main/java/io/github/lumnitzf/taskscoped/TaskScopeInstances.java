@@ -0,0 +1,504 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage of the instances of a single TaskScope, e.g. the contextual instances of an integration or the values of
+ * {@link TaskLocal TaskLocals}. Instances are identified by an arbitrary key, or by the index of a slot.
+ * <p>
+ * Instances are created on first access. Access to existing instances is lock free, only the creation is synchronized
+ * on this storage. Methods related to the idle state and spilling must be synchronized using the {@link TaskId#lock}
+ * of the TaskScope.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+class TaskScopeInstances {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScopeInstances.class);
+
+    /**
+     * The instances by their key.
+     */
+    private final Map<Object, ScopedInstance<?>> instances = new ConcurrentHashMap<>();
+
+    /**
+     * The instances by their slot index, used by {@link TaskLocal TaskLocals} to avoid hashing. The array is only
+     * grown while synchronized on this storage, and replaced as a whole, so reading a slot is lock free.
+     */
+    private volatile AtomicReferenceArray<ScopedInstance<?>> slots = new AtomicReferenceArray<>(0);
+
+    /**
+     * The creation time of the TaskScope.
+     */
+    private final Instant created = Instant.now();
+
+    /**
+     * The {@link System#nanoTime()} of the creation, to determine the age independent of clock changes.
+     */
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * The stack of the thread creating the TaskScope, {@code null} if it was not sampled.
+     */
+    private final StackTraceElement[] creationStack;
+
+    /**
+     * Flag indicating if no task is currently inside the TaskScope.
+     */
+    private boolean idle = false;
+
+    /**
+     * Incremented each time the TaskScope becomes idle, to identify a single idle period.
+     */
+    private long idleGeneration = 0;
+
+    /**
+     * Flag indicating if instances are currently spilled.
+     */
+    private boolean spilled = false;
+
+    /**
+     * The heap usage of the instances, excluding spilled ones.
+     */
+    private final MemoryAccount memory = new MemoryAccount();
+
+    /**
+     * @param creationStack the stack of the thread creating the TaskScope, {@code null} if it was not sampled
+     */
+    TaskScopeInstances(final StackTraceElement[] creationStack) {
+        this.creationStack = creationStack;
+    }
+
+    /**
+     * @return the creation time of the TaskScope
+     */
+    Instant created() {
+        return created;
+    }
+
+    /**
+     * @return the time since the creation of the TaskScope
+     */
+    Duration age() {
+        return Duration.ofNanos(System.nanoTime() - createdNanos);
+    }
+
+    /**
+     * @return the stack of the thread creating the TaskScope, {@code null} if it was not sampled
+     */
+    StackTraceElement[] creationStack() {
+        return creationStack;
+    }
+
+    /**
+     * Estimates the heap usage of the instances. Spilled instances are not on the heap, and therefore not accounted.
+     *
+     * @param defaultBytes the size of instances not implementing {@link MemoryFootprint}
+     *
+     * @return the estimated amount of heap bytes retained by the instances
+     */
+    long estimatedBytes(final long defaultBytes) {
+        return memory.estimatedBytes(defaultBytes);
+    }
+
+    /**
+     * @return the class names of all instances, including spilled ones
+     */
+    List<String> instanceTypes() {
+        final List<String> types = new ArrayList<>();
+        forEachInstance(instance -> types.add(instance.type == null ? "null" : instance.type.getName()));
+        return types;
+    }
+
+    /**
+     * @param key identifying the instance
+     * @param <T> type of the instance
+     *
+     * @return the existing instance, {@code null} if none exists
+     */
+    <T> T get(final Object key) {
+        final ScopedInstance<T> existing = lookup(key);
+        return existing == null ? null : existing.instance;
+    }
+
+    /**
+     * Returns the existing instance, or creates it if none exists.
+     *
+     * @param key       identifying the instance
+     * @param factory   creating the instance
+     * @param destroyer destroying the instance, once the TaskScope is destroyed
+     * @param <T>       type of the instance
+     *
+     * @return the existing or created instance
+     */
+    <T> T get(final Object key, final Supplier<? extends T> factory, final Consumer<? super T> destroyer) {
+        final ScopedInstance<T> existing = lookup(key);
+        if (existing != null) {
+            return existing.instance;
+        }
+        // The creation may require other instances of this scope, so ConcurrentHashMap.computeIfAbsent must not be used
+        synchronized (this) {
+            final ScopedInstance<T> created = lookup(key);
+            if (created != null) {
+                return created.instance;
+            }
+            final T instance = factory.get();
+            instances.put(key, accounted(new ScopedInstance<>(key, instance, destroyer)));
+            return instance;
+        }
+    }
+
+    /**
+     * Sets the instance, replacing any existing instance. The replaced instance is not destroyed.
+     *
+     * @param key       identifying the instance
+     * @param instance  to set
+     * @param destroyer destroying the instance, once the TaskScope is destroyed
+     * @param <T>       type of the instance
+     */
+    <T> void put(final Object key, final T instance, final Consumer<? super T> destroyer) {
+        synchronized (this) {
+            release(instances.put(key, accounted(new ScopedInstance<>(key, instance, destroyer))));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ScopedInstance<T> lookup(final Object key) {
+        return (ScopedInstance<T>) instances.get(key);
+    }
+
+    /**
+     * Returns the existing instance of the slot, or creates it if none exists.
+     *
+     * @param index     of the slot
+     * @param factory   creating the instance
+     * @param destroyer destroying the instance, once the TaskScope is destroyed
+     * @param <T>       type of the instance
+     *
+     * @return the existing or created instance
+     */
+    <T> T getSlot(final int index, final Supplier<? extends T> factory, final Consumer<? super T> destroyer) {
+        final ScopedInstance<T> existing = lookupSlot(index);
+        if (existing != null) {
+            return existing.instance;
+        }
+        synchronized (this) {
+            final ScopedInstance<T> created = lookupSlot(index);
+            if (created != null) {
+                return created.instance;
+            }
+            final T instance = factory.get();
+            slotsFor(index).set(index, accounted(new ScopedInstance<>(index, instance, destroyer)));
+            return instance;
+        }
+    }
+
+    /**
+     * Sets the instance of the slot, replacing any existing instance. The replaced instance is not destroyed.
+     *
+     * @param index     of the slot
+     * @param instance  to set
+     * @param destroyer destroying the instance, once the TaskScope is destroyed
+     * @param <T>       type of the instance
+     */
+    <T> void putSlot(final int index, final T instance, final Consumer<? super T> destroyer) {
+        synchronized (this) {
+            release(slotsFor(index).getAndSet(index, accounted(new ScopedInstance<>(index, instance, destroyer))));
+        }
+    }
+
+    /**
+     * Clears the slot. The removed instance is not destroyed.
+     *
+     * @param index of the slot
+     */
+    void removeSlot(final int index) {
+        synchronized (this) {
+            final AtomicReferenceArray<ScopedInstance<?>> current = slots;
+            if (index < current.length()) {
+                release(current.getAndSet(index, null));
+            }
+        }
+    }
+
+    private <T> ScopedInstance<T> accounted(final ScopedInstance<T> added) {
+        added.accountedSize = memory.add(added.instance);
+        return added;
+    }
+
+    private void release(final ScopedInstance<?> removed) {
+        // Spilled instances are not accounted
+        if (removed != null && removed.region == null) {
+            memory.remove(removed.accountedSize);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ScopedInstance<T> lookupSlot(final int index) {
+        final AtomicReferenceArray<ScopedInstance<?>> current = slots;
+        return index < current.length() ? (ScopedInstance<T>) current.get(index) : null;
+    }
+
+    /**
+     * Must be called while synchronized on this storage.
+     *
+     * @param index of the slot
+     *
+     * @return the slots, grown to contain {@code index}
+     */
+    private AtomicReferenceArray<ScopedInstance<?>> slotsFor(final int index) {
+        final AtomicReferenceArray<ScopedInstance<?>> current = slots;
+        if (index < current.length()) {
+            return current;
+        }
+        final AtomicReferenceArray<ScopedInstance<?>> grown = new AtomicReferenceArray<>(
+                Math.max(index + 1, Math.max(8, current.length() * 2)));
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        slots = grown;
+        return grown;
+    }
+
+    private void forEachInstance(final Consumer<ScopedInstance<?>> action) {
+        instances.values().forEach(action);
+        final AtomicReferenceArray<ScopedInstance<?>> current = slots;
+        for (int i = 0; i < current.length(); i++) {
+            final ScopedInstance<?> instance = current.get(i);
+            if (instance != null) {
+                action.accept(instance);
+            }
+        }
+    }
+
+    /**
+     * Destroys all instances.
+     *
+     * @param store the store instances have been {@link #spill(MappedSpillStore) spilled} to, may be {@code null} if
+     *              spilling is disabled
+     */
+    void destroy(final MappedSpillStore store) {
+        restore(store);
+        forEachInstance(ScopedInstance::destroy);
+        instances.clear();
+        slots = new AtomicReferenceArray<>(0);
+        memory.clear();
+    }
+
+    /**
+     * Marks the TaskScope as idle.
+     *
+     * @return the generation identifying this idle period, if the TaskScope was busy before, {@code -1} otherwise
+     */
+    long markIdle() {
+        if (idle) {
+            return -1;
+        }
+        idle = true;
+        return ++idleGeneration;
+    }
+
+    /**
+     * Marks the TaskScope as busy, and restores any spilled instances.
+     *
+     * @param store the store instances have been {@link #spill(MappedSpillStore) spilled} to, may be {@code null} if
+     *              spilling is disabled
+     */
+    void markBusy(final MappedSpillStore store) {
+        idle = false;
+        restore(store);
+    }
+
+    /**
+     * @param generation identifying an idle period
+     *
+     * @return {@code true} if the TaskScope is still in the identified idle period
+     */
+    boolean isIdleSince(final long generation) {
+        return idle && idleGeneration == generation;
+    }
+
+    /**
+     * Writes all {@link Spillable} instances to the {@code store} and drops them from the heap.
+     *
+     * @param store to write to
+     *
+     * @return the amount of spilled instances
+     */
+    int spill(final MappedSpillStore store) {
+        final int[] count = {0};
+        forEachInstance(instance -> {
+            if (instance.spill(store)) {
+                memory.remove(instance.accountedSize);
+                count[0]++;
+            }
+        });
+        spilled = count[0] > 0;
+        return count[0];
+    }
+
+    /**
+     * Restores any spilled instances, without changing the idle state.
+     *
+     * @param store the store instances have been {@link #spill(MappedSpillStore) spilled} to, may be {@code null} if
+     *              spilling is disabled
+     */
+    void restore(final MappedSpillStore store) {
+        if (spilled) {
+            forEachInstance(instance -> {
+                if (instance.restore(store)) {
+                    accounted(instance);
+                }
+            });
+            spilled = false;
+        }
+    }
+
+    /**
+     * An instance, together with the information required to destroy it.
+     *
+     * @param <T> type of the instance
+     */
+    private static class ScopedInstance<T> {
+
+        private final Object key;
+
+        private final Consumer<? super T> destroyer;
+
+        /**
+         * The class of the instance, {@code null} for a {@code null} instance.
+         */
+        private final Class<?> type;
+
+        /**
+         * The class loader of the instance, to resolve classes when restoring it.
+         */
+        private final ClassLoader classLoader;
+
+        /**
+         * The instance, {@code null} while it is spilled.
+         */
+        private T instance;
+
+        /**
+         * The region containing the spilled instance, {@code null} if it is not spilled.
+         */
+        private MappedSpillStore.Region region;
+
+        /**
+         * The size the instance is {@link MemoryAccount#add(Object) accounted} with, while it is not spilled.
+         */
+        private long accountedSize;
+
+        private ScopedInstance(final Object key, final T instance, final Consumer<? super T> destroyer) {
+            this.key = key;
+            this.destroyer = destroyer;
+            this.instance = instance;
+            this.type = instance == null ? null : instance.getClass();
+            this.classLoader = type == null ? null : type.getClassLoader();
+        }
+
+        private boolean spill(final MappedSpillStore store) {
+            if (!(instance instanceof Spillable) || region != null) {
+                return false;
+            }
+            try {
+                final byte[] data = serialize(instance);
+                // Verify it can be restored, before dropping the only reference
+                deserialize(data);
+                region = store.write(data);
+            } catch (final IOException | ClassNotFoundException | RuntimeException e) {
+                LOG.debug("Not spilling {}, as it cannot be serialized", instance, e);
+                return false;
+            }
+            if (region == null) {
+                LOG.debug("Not spilling {}, as the spill store is exhausted", instance);
+                return false;
+            }
+            instance = null;
+            return true;
+        }
+
+        private boolean restore(final MappedSpillStore store) {
+            if (region == null) {
+                return false;
+            }
+            try {
+                instance = deserialize(store.read(region));
+            } catch (final IOException | ClassNotFoundException e) {
+                // Already verified when spilling, so this can only be an I/O error of the store
+                throw new IllegalStateException("Could not restore spilled instance of " + key, e);
+            }
+            store.free(region);
+            region = null;
+            return true;
+        }
+
+        private void destroy() {
+            try {
+                destroyer.accept(instance);
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not destroy instance of {}", key, e);
+            }
+        }
+
+        private byte[] serialize(final T value) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(value);
+            }
+            return bytes.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        private T deserialize(final byte[] data) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data), classLoader)) {
+                return (T) in.readObject();
+            }
+        }
+    }
+
+    /**
+     * {@link ObjectInputStream} resolving classes with a specific {@link ClassLoader} first.
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        private ClassLoaderObjectInputStream(final InputStream in, final ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (final ClassNotFoundException e) {
+                    // Fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.lumnitzf.taskscoped;
+
+/**
+ * Listener for lifecycle changes of the TaskScopes managed by a {@link TaskScopeEngine}. All methods are invoked
+ * synchronously by the thread causing the change, and have an empty default implementation.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#addListener(TaskScopeListener)
+ * @see AsyncTaskScopeListener
+ */
+public interface TaskScopeListener {
+
+    /**
+     * Invoked after the TaskScope has been created.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    default void initialized(final TaskId taskId) {
+    }
+
+    /**
+     * Invoked after a thread has entered the TaskScope. Not invoked if the thread already was inside the TaskScope.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    default void entered(final TaskId taskId) {
+    }
+
+    /**
+     * Invoked before a thread exits the TaskScope. Not invoked if the thread stays inside the TaskScope.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    default void exiting(final TaskId taskId) {
+    }
+
+    /**
+     * Invoked after the TaskScope has been destroyed.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    default void destroyed(final TaskId taskId) {
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task preserving decorator for {@link ExecutorService}, which executes the tasks of the same TaskScope strictly one
+ * at a time in their submission order. Tasks of different TaskScopes are executed in parallel by the delegate.
+ * <p>
+ * Each TaskScope with pending tasks has a mailbox, which is executed by a single worker of the delegate at a time.
+ * The worker runs the tasks of the mailbox sequentially, and hands the remaining tasks over to a new worker after
+ * {@code throughput} tasks, so that a busy TaskScope does not monopolize the delegate. The completion of each task
+ * <i>happens-before</i> the start of the next task of the same TaskScope, so {@link TaskScoped} instances only used by
+ * these tasks do not require any synchronization.
+ * </p>
+ * <p>
+ * Only tasks submitted to the same decorator are serialized. Tasks must not wait for other tasks of their own
+ * TaskScope submitted to this decorator, as those only start once the waiting task has completed. Tasks are never
+ * run inline by the submitting thread, as that would break the submission order.
+ * </p>
+ * <p>
+ * The tasks returned by {@link #shutdownNow()} have released their TaskScope, and are skipped if executed anyway.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#serializing(ExecutorService)
+ */
+public class TaskSerializingExecutorService extends TaskPreservingExecutorService {
+
+    /**
+     * The default amount of tasks a worker runs, before handing the mailbox over to a new worker.
+     */
+    public static final int DEFAULT_THROUGHPUT = 16;
+
+    public TaskSerializingExecutorService(final TaskScopeEngine engine, final ExecutorService delegate) {
+        this(engine, delegate, DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param engine     the engine managing the TaskScopes
+     * @param delegate   the executor actually executing the tasks
+     * @param throughput the amount of tasks a worker runs, before handing the mailbox over to a new worker
+     *
+     * @throws IllegalArgumentException if {@code throughput} is not positive
+     */
+    public TaskSerializingExecutorService(final TaskScopeEngine engine, final ExecutorService delegate,
+                                          final int throughput) {
+        super(engine, new MailboxExecutor(delegate, throughput));
+    }
+
+    @Override
+    public <T> Future<T> submit(final Callable<T> task) {
+        return track(delegate.submit(decorate(task)));
+    }
+
+    @Override
+    public <T> Future<T> submit(final Runnable task, final T result) {
+        return track(delegate.submit(decorate(task), result));
+    }
+
+    @Override
+    public Future<?> submit(final Runnable task) {
+        return track(delegate.submit(decorate(task)));
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        delegate.execute(decorate(command));
+    }
+
+    /**
+     * Executor routing the already decorated tasks into the mailbox of the TaskScope of the submitting thread.
+     */
+    private static final class MailboxExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final int throughput;
+
+        /**
+         * The mailboxes of the TaskScopes with pending tasks. A mailbox is contained, while it is scheduled for or
+         * being executed by a worker. All modifications of the contained mailboxes are done atomically via {@code
+         * compute}, which also establishes the happens-before relation between consecutive tasks.
+         */
+        private final ConcurrentMap<TaskId, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+        private MailboxExecutor(final ExecutorService delegate, final int throughput) {
+            if (throughput < 1) {
+                throw new IllegalArgumentException("throughput must be positive, but was " + throughput);
+            }
+            this.delegate = Objects.requireNonNull(delegate, "delegate");
+            this.throughput = throughput;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            Objects.requireNonNull(command, "command");
+            final TaskId taskId = TaskIdHolder.get().orElse(null);
+            if (taskId == null) {
+                // Not bound to any TaskScope, so nothing to serialize
+                delegate.execute(command);
+                return;
+            }
+            // Holder hack for the lambda
+            final Mailbox[] created = new Mailbox[1];
+            mailboxes.compute(taskId, (id, mailbox) -> {
+                final Mailbox result = mailbox == null ? created[0] = new Mailbox(id) : mailbox;
+                result.tasks.add(command);
+                return result;
+            });
+            if (created[0] != null) {
+                try {
+                    delegate.execute(created[0]);
+                } catch (final RejectedExecutionException e) {
+                    mailboxes.computeIfPresent(taskId, (id, mailbox) -> {
+                        mailbox.tasks.remove(command);
+                        return mailbox.tasks.isEmpty() ? null : mailbox;
+                    });
+                    if (mailboxes.get(taskId) == created[0]) {
+                        // Tasks added concurrently rely on the mailbox being executed
+                        created[0].run();
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            final List<Runnable> pending = new ArrayList<>();
+            // Stops the running workers after their current task, before interrupting them
+            drainMailboxes(pending);
+            for (final Runnable task : delegate.shutdownNow()) {
+                if (task instanceof Mailbox) {
+                    // Created concurrently, so it is drained below if still contained
+                    mailboxes.remove(((Mailbox) task).taskId, task);
+                    drain((Mailbox) task, pending);
+                } else {
+                    pending.add(task);
+                }
+            }
+            drainMailboxes(pending);
+            return pending;
+        }
+
+        private void drainMailboxes(final List<Runnable> pending) {
+            for (final TaskId taskId : mailboxes.keySet()) {
+                final Mailbox mailbox = mailboxes.remove(taskId);
+                if (mailbox != null) {
+                    drain(mailbox, pending);
+                }
+            }
+        }
+
+        /**
+         * Must only be called for a mailbox, which is not contained anymore. As tasks are only added while the mailbox
+         * is contained, it is drained completely.
+         */
+        private static void drain(final Mailbox mailbox, final List<Runnable> pending) {
+            Runnable task;
+            while ((task = mailbox.tasks.poll()) != null) {
+                pending.add(task);
+                discard(task);
+            }
+        }
+
+        /**
+         * Releases the registration of a decorated task, which is not going to be executed.
+         *
+         * @param task the task dropped from a mailbox
+         */
+        private static void discard(final Runnable task) {
+            final Object decorated = task instanceof MailboxFuture ? ((MailboxFuture<?>) task).task : task;
+            if (decorated instanceof TaskPreservingRunnableDecorator) {
+                ((TaskPreservingRunnableDecorator) decorated).discard();
+            } else if (decorated instanceof TaskPreservingCallableDecorator) {
+                ((TaskPreservingCallableDecorator<?>) decorated).discard();
+            }
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+            return new MailboxFuture<>(runnable, value);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+            return new MailboxFuture<>(callable);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+
+        /**
+         * The pending tasks of a single TaskScope, executed by one worker at a time.
+         */
+        private final class Mailbox implements Runnable {
+
+            private final TaskId taskId;
+
+            private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+            private Mailbox(final TaskId taskId) {
+                this.taskId = taskId;
+            }
+
+            @Override
+            public void run() {
+                int executed = 0;
+                Throwable failure = null;
+                Runnable task;
+                while ((task = poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (final RuntimeException | Error e) {
+                        if (failure != null) {
+                            failure.addSuppressed(e);
+                        } else {
+                            failure = e;
+                            // The failure terminates this worker, if a new one takes over the remaining tasks
+                            if (handOver()) {
+                                break;
+                            }
+                        }
+                    }
+                    if (++executed >= throughput && !tasks.isEmpty() && handOver()) {
+                        break;
+                    }
+                }
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw (RuntimeException) failure;
+                }
+            }
+
+            /**
+             * @return the next task, {@code null} if there is none, in which case this mailbox has been removed
+             */
+            private Runnable poll() {
+                // Holder hack for the lambda
+                final Runnable[] next = new Runnable[1];
+                mailboxes.computeIfPresent(taskId, (id, mailbox) -> {
+                    next[0] = mailbox.tasks.poll();
+                    return next[0] == null ? null : mailbox;
+                });
+                return next[0];
+            }
+
+            /**
+             * Hands the remaining tasks over to a new worker.
+             *
+             * @return {@code true} if handed over, {@code false} if the delegate rejected the worker, in which case
+             *         the current thread must continue
+             */
+            private boolean handOver() {
+                try {
+                    delegate.execute(this);
+                    return true;
+                } catch (final RejectedExecutionException e) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Future of a task submitted to the mailboxes, keeping the decorated task to release it once dropped.
+         *
+         * @param <T> the result type of the task
+         */
+        private static final class MailboxFuture<T> extends FutureTask<T> {
+
+            private final Object task;
+
+            private MailboxFuture(final Callable<T> callable) {
+                super(callable);
+                this.task = callable;
+            }
+
+            private MailboxFuture(final Runnable runnable, final T result) {
+                super(runnable, result);
+                this.task = runnable;
+            }
+        }
+    }
+}
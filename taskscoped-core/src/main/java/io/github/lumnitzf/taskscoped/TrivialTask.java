@@ -0,0 +1,34 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * Marks a {@link Runnable} or {@link Callable} as trivial, i.e. it is expected to finish within microseconds. Such
+ * tasks may be run inline by the submitting thread, if the {@link InlinePolicy#trivialTasks()} policy is used.
+ *
+ * @author Fritz Lumnitz
+ */
+public interface TrivialTask {
+
+    /**
+     * @param task to mark
+     *
+     * @return {@code task} marked as trivial
+     */
+    static Runnable of(final Runnable task) {
+        Objects.requireNonNull(task, "task");
+        return (Runnable & TrivialTask) task::run;
+    }
+
+    /**
+     * @param task to mark
+     * @param <T>  the type of the value returned from the task
+     *
+     * @return {@code task} marked as trivial
+     */
+    static <T> Callable<T> of(final Callable<T> task) {
+        Objects.requireNonNull(task, "task");
+        return (Callable<T> & TrivialTask) task::call;
+    }
+}
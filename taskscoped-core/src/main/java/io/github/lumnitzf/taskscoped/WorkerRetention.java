@@ -0,0 +1,189 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps track of the worker threads retaining their TaskScope between consecutive tasks, for the {@link
+ * TaskScopeEngine#setWorkerRetention(long, TimeUnit) worker retention} of a {@link TaskScopeEngine}. Each retaining
+ * thread is still counted as running inside the TaskScope by the engine.
+ *
+ * @author Fritz Lumnitz
+ */
+final class WorkerRetention {
+
+    /**
+     * The worker threads retaining the TaskScope of a {@link TaskId}, together with the {@link System#nanoTime()} they
+     * started retaining it. Accesses to this map and its value must be synchronized using {@link TaskId#lock}.
+     */
+    private final Map<TaskId, Map<Thread, Long>> retainingThreads = new ConcurrentHashMap<>();
+
+    /**
+     * The {@link TaskId} retained by the current worker thread, if any.
+     */
+    private final ThreadLocal<TaskId> retained = new ThreadLocal<>();
+
+    /**
+     * Releases the retentions which have lasted for at least the passed nanoseconds.
+     */
+    private final LongConsumer releaseRetained;
+
+    /**
+     * The time in nanoseconds a worker thread retains its TaskScope at most, {@code 0} if worker threads do not retain
+     * their TaskScope.
+     */
+    private volatile long retentionNanos = 0;
+
+    /**
+     * Releases the TaskScopes retained for longer than {@link #retentionNanos}, {@code null} if the retention is
+     * disabled. Accesses must be synchronized using this instance.
+     */
+    private ScheduledExecutorService releaser;
+
+    /**
+     * @param releaseRetained releases the retentions which have lasted for at least the passed nanoseconds
+     */
+    WorkerRetention(final LongConsumer releaseRetained) {
+        this.releaseRetained = Objects.requireNonNull(releaseRetained, "releaseRetained");
+    }
+
+    /**
+     * @return {@code true} if worker threads retain their TaskScope
+     */
+    boolean isEnabled() {
+        return retentionNanos > 0;
+    }
+
+    /**
+     * @param timeout the time a worker retains its TaskScope at most, {@code 0} to disable the retention
+     * @param unit    the time unit of the timeout
+     *
+     * @throws IllegalArgumentException if {@code timeout} is negative
+     */
+    synchronized void setTimeout(final long timeout, final TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative, but was " + timeout);
+        }
+        if (releaser != null) {
+            releaser.shutdownNow();
+            releaser = null;
+        }
+        retentionNanos = unit.toNanos(timeout);
+        if (retentionNanos > 0) {
+            releaser = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "taskscoped-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+            releaser.scheduleWithFixedDelay(() -> releaseRetained.accept(retentionNanos), retentionNanos,
+                    retentionNanos, TimeUnit.NANOSECONDS);
+        } else {
+            releaseRetained.accept(0);
+        }
+    }
+
+    /**
+     * Lets the current thread retain the TaskScope identified by {@code taskId}. Must be called while synchronized
+     * using {@link TaskId#lock}.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    void retain(final TaskId taskId) {
+        retainingThreads.computeIfAbsent(taskId, ignored -> new HashMap<>()).put(Thread.currentThread(),
+                System.nanoTime());
+        retained.set(taskId);
+    }
+
+    /**
+     * @return the {@link TaskId} retained by the current thread, which is not retained by it anymore, {@code null} if
+     *         there is none. The retention must be {@link #release(TaskId) released}, unless it has been released in
+     *         the meantime.
+     */
+    TaskId takeRetained() {
+        final TaskId taskId = retained.get();
+        if (taskId != null) {
+            retained.remove();
+        }
+        return taskId;
+    }
+
+    /**
+     * Releases the retention of the TaskScope identified by {@code taskId} by the current thread.
+     *
+     * @param taskId identifying the TaskScope
+     *
+     * @return {@code true} if released, {@code false} if it has already been released, e.g. as the TaskScope has been
+     *         destroyed in the meantime
+     */
+    boolean release(final TaskId taskId) {
+        synchronized (taskId.lock) {
+            final Map<Thread, Long> threads = retainingThreads.get(taskId);
+            if (threads == null || threads.remove(Thread.currentThread()) == null) {
+                return false;
+            }
+            if (threads.isEmpty()) {
+                retainingThreads.remove(taskId);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Releases all retentions of the TaskScope identified by {@code taskId}, which have lasted for at least {@code
+     * minNanos}. Must be called while synchronized using {@link TaskId#lock}.
+     *
+     * @param taskId   identifying the TaskScope
+     * @param now      the current {@link System#nanoTime()}
+     * @param minNanos the minimal duration of the released retentions
+     *
+     * @return the amount of released retentions
+     */
+    int release(final TaskId taskId, final long now, final long minNanos) {
+        final Map<Thread, Long> threads = retainingThreads.get(taskId);
+        if (threads == null) {
+            return 0;
+        }
+        final int before = threads.size();
+        threads.values().removeIf(since -> now - since >= minNanos);
+        if (threads.isEmpty()) {
+            retainingThreads.remove(taskId);
+        }
+        // The workers notice the released retention when entering their next TaskScope
+        return before - threads.size();
+    }
+
+    /**
+     * @return the TaskIds of the TaskScopes currently retained by any thread
+     */
+    Set<TaskId> retainedTaskIds() {
+        return retainingThreads.keySet();
+    }
+
+    /**
+     * @param taskId identifying the TaskScope
+     *
+     * @return the amount of threads retaining the TaskScope
+     */
+    int count(final TaskId taskId) {
+        final Map<Thread, Long> threads = retainingThreads.get(taskId);
+        return threads == null ? 0 : threads.size();
+    }
+
+    /**
+     * Forgets all retentions of the destroyed TaskScope identified by {@code taskId}. Must be called while
+     * synchronized using {@link TaskId#lock}.
+     *
+     * @param taskId identifying the TaskScope
+     */
+    void remove(final TaskId taskId) {
+        retainingThreads.remove(taskId);
+    }
+}
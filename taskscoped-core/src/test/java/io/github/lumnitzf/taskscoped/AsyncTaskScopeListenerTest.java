@@ -0,0 +1,99 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+class AsyncTaskScopeListenerTest {
+
+    private TaskScopeEngine engine;
+
+    @BeforeEach
+    void createEngine() {
+        engine = new TaskScopeEngine();
+    }
+
+    @AfterEach
+    void reset() {
+        // Reset the ThreadLocal
+        TaskIdHolder.remove();
+    }
+
+    @Test
+    void deliversEventsInOrderOnBackgroundThread() {
+        final List<TaskScopeEvent> events = new ArrayList<>();
+        final AtomicReference<Thread> deliveringThread = new AtomicReference<>();
+        final AsyncTaskScopeListener testee = new AsyncTaskScopeListener(batch -> {
+            deliveringThread.set(Thread.currentThread());
+            events.addAll(batch);
+        });
+        engine.addListener(testee);
+
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        engine.runInScope(() -> taskId.set(TaskIdHolder.get().orElse(null)));
+        testee.close();
+
+        assertThat(events).extracting(TaskScopeEvent::getType).containsExactly(TaskScopeEvent.Type.INITIALIZED,
+                TaskScopeEvent.Type.ENTERED, TaskScopeEvent.Type.EXITING, TaskScopeEvent.Type.DESTROYED);
+        assertThat(events).extracting(TaskScopeEvent::getTaskId).containsOnly(taskId.get());
+        assertThat(events).extracting(TaskScopeEvent::getThreadName).containsOnly(Thread.currentThread().getName());
+        assertThat(deliveringThread.get()).isNotSameAs(Thread.currentThread());
+    }
+
+    @Test
+    void dropsNewestEventsWhileFull() throws Exception {
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<TaskScopeEvent> events = new ArrayList<>();
+        final AsyncTaskScopeListener testee = new AsyncTaskScopeListener(batch -> {
+            delivering.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.addAll(batch);
+        }, 4, 1, AsyncTaskScopeListener.OverflowPolicy.DROP_NEWEST);
+        final TaskId taskId = TaskId.create();
+
+        // The first event is taken by the blocked consumer, the next four fill the buffer
+        testee.initialized(taskId);
+        assertThat(delivering.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 4; i++) {
+            testee.entered(taskId);
+        }
+        testee.destroyed(taskId);
+        release.countDown();
+        testee.close();
+
+        assertThat(testee.getDroppedCount()).isEqualTo(1);
+        assertThat(events).hasSize(5).extracting(TaskScopeEvent::getType)
+                .doesNotContain(TaskScopeEvent.Type.DESTROYED);
+    }
+
+    @Test
+    void dispatchesToListener() {
+        final List<TaskId> destroyed = new ArrayList<>();
+        final AsyncTaskScopeListener testee = new AsyncTaskScopeListener(
+                AsyncTaskScopeListener.dispatchingTo(new TaskScopeListener() {
+                    @Override
+                    public void destroyed(final TaskId taskId) {
+                        destroyed.add(taskId);
+                    }
+                }));
+        final TaskId taskId = TaskId.create();
+
+        testee.entered(taskId);
+        testee.destroyed(taskId);
+        testee.close();
+
+        assertThat(destroyed).containsExactly(taskId);
+        assertThat(testee.getDroppedCount()).isZero();
+    }
+}
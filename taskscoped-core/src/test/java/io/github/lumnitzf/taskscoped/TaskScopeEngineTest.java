@@ -0,0 +1,678 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.junit.jupiter.api.*;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+class TaskScopeEngineTest {
+
+    private TaskScopeEngine testee;
+
+    private TaskScopeListener listenerMock;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void createEngine() {
+        testee = new TaskScopeEngine();
+        listenerMock = mock(TaskScopeListener.class);
+        testee.addListener(listenerMock);
+        executor = testee.preserving(Executors.newSingleThreadExecutor());
+    }
+
+    @AfterEach
+    void reset() {
+        executor.shutdownNow();
+        // Reset the ThreadLocal
+        TaskIdHolder.remove();
+    }
+
+    @Test
+    void scopeNotActive() {
+        assertThat(testee.isActive()).isFalse();
+        assertThatThrownBy(() -> new TaskLocal<>(testee).get()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void runInScopeNotifiesListener() {
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        testee.runInScope(() -> {
+            assertThat(testee.isActive()).isTrue();
+            taskId.set(TaskIdHolder.get().orElse(null));
+        });
+
+        final InOrder inOrder = inOrder(listenerMock);
+        inOrder.verify(listenerMock).initialized(taskId.get());
+        inOrder.verify(listenerMock).entered(taskId.get());
+        inOrder.verify(listenerMock).exiting(taskId.get());
+        inOrder.verify(listenerMock).destroyed(taskId.get());
+        assertThat(testee.isActive()).isFalse();
+    }
+
+    @Test
+    void nestedRunInScopeUsesSameScope() throws Exception {
+        final TaskId taskId = testee.callInScope(() -> {
+            final TaskId outer = TaskIdHolder.get().orElse(null);
+            testee.runInScope(() -> assertThat(TaskIdHolder.get()).containsSame(outer));
+            verify(listenerMock, never()).destroyed(any());
+            return outer;
+        });
+
+        verify(listenerMock).destroyed(taskId);
+    }
+
+    @Test
+    void taskLocalIsSharedWithinScope() throws Exception {
+        final TaskLocal<AtomicReference<String>> taskLocal = new TaskLocal<>(testee, AtomicReference::new);
+        final Future<String> future = testee.callInScope(() -> {
+            taskLocal.get().set("Hello World!");
+            return executor.submit(() -> taskLocal.get().get());
+        });
+        assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("Hello World!");
+
+        testee.runInScope(() -> assertThat(taskLocal.get().get()).isNull());
+    }
+
+    @Test
+    void taskLocalCanBeSet() {
+        final TaskLocal<String> taskLocal = new TaskLocal<>(testee);
+        testee.runInScope(() -> {
+            assertThat(taskLocal.get()).isNull();
+            taskLocal.set("Hello World!");
+            assertThat(taskLocal.get()).isEqualTo("Hello World!");
+        });
+    }
+
+    @Test
+    void taskLocalCanBeRemoved() {
+        final TaskLocal<AtomicReference<String>> taskLocal = new TaskLocal<>(testee, AtomicReference::new);
+        testee.runInScope(() -> {
+            final AtomicReference<String> initial = taskLocal.get();
+            taskLocal.remove();
+            assertThat(taskLocal.get()).isNotSameAs(initial);
+        });
+    }
+
+    @Test
+    void taskLocalIsCleanedUpWithScope() {
+        final List<String> cleanedUp = new CopyOnWriteArrayList<>();
+        final TaskLocal<String> taskLocal = new TaskLocal<>(testee, () -> "initial", cleanedUp::add);
+        testee.runInScope(() -> {
+            taskLocal.get();
+            taskLocal.set("replaced");
+            assertThat(cleanedUp).isEmpty();
+        });
+
+        assertThat(cleanedUp).containsExactly("replaced");
+    }
+
+    @Test
+    void preservingExecutorKeepsScopeAlive() throws Exception {
+        final AtomicReference<TaskId> initial = new AtomicReference<>();
+        final Future<TaskId> future = testee.callInScope(() -> {
+            initial.set(TaskIdHolder.get().orElse(null));
+            return executor.submit(() -> TaskIdHolder.get().orElse(null));
+        });
+
+        assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(initial.get());
+        verify(listenerMock, timeout(5000)).destroyed(initial.get());
+    }
+
+    @Test
+    void cancelCancelsPendingTasksAndDestroysScope() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        final List<Future<?>> futures = testee.callInScope(() -> {
+            taskId.set(TaskIdHolder.get().orElse(null));
+            return Arrays.<Future<?>>asList(executor.submit(() -> {
+                started.countDown();
+                Thread.sleep(10_000);
+                return null;
+            }), executor.submit(() -> "never executed"));
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(testee.cancel(taskId.get(), true)).isTrue();
+        assertThat(futures).allMatch(Future::isCancelled);
+        verify(listenerMock, timeout(5000)).destroyed(taskId.get());
+        // The cancellation ends with the destroyed scope
+        assertThat(testee.isCancelled(taskId.get())).isFalse();
+        assertThat(testee.cancel(taskId.get(), true)).isFalse();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cancelReleasesAllPendingWork() throws Exception {
+        final TaskPreservingRingBufferExecutor ringBuffer = new TaskPreservingRingBufferExecutor(testee, 1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            // Blocks the only worker, outside of any scope
+            ringBuffer.execute(() -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            final AtomicBoolean executed = new AtomicBoolean();
+            final CompletionHandler<Integer, Object> handlerMock = mock(CompletionHandler.class);
+            final AtomicReference<TaskId> taskId = new AtomicReference<>();
+            final CompletionHandler<Integer, Object> handler = testee.callInScope(() -> {
+                taskId.set(TaskIdHolder.get().orElse(null));
+                ringBuffer.execute(() -> executed.set(true));
+                return testee.preserving(handlerMock);
+            });
+            verify(listenerMock, never()).destroyed(any());
+
+            assertThat(testee.cancel(taskId.get(), false)).isTrue();
+            verify(listenerMock).destroyed(taskId.get());
+            assertThat(testee.isCancelled(taskId.get())).isFalse();
+
+            release.countDown();
+            handler.completed(42, null);
+            ringBuffer.shutdown();
+            assertThat(ringBuffer.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(executed).isFalse();
+            verify(handlerMock).failed(any(CancellationException.class), any());
+            // Neither the task nor the handler re-created the cancelled scope
+            verify(listenerMock).initialized(taskId.get());
+
+            final TaskId previous = testee.enter(taskId.get());
+            assertThat(testee.isCancelled(taskId.get())).isFalse();
+            testee.exit(previous);
+        } finally {
+            ringBuffer.shutdownNow();
+        }
+    }
+
+    @Test
+    void contextualProxyKeepsScopeUntilReleased() throws Exception {
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        final TaskIdCallable proxy = testee.callInScope(() -> {
+            taskId.set(TaskIdHolder.get().orElse(null));
+            return testee.contextualProxy(() -> TaskIdHolder.get().orElse(null), TaskIdCallable.class);
+        });
+        verify(listenerMock, never()).destroyed(any());
+
+        assertThat(proxy).isInstanceOf(TaskPreservingProxy.class);
+        assertThatCode(() -> assertThat(proxy.call()).isSameAs(taskId.get())).doesNotThrowAnyException();
+        assertThat(TaskIdHolder.get()).isEmpty();
+
+        ((TaskPreservingProxy) proxy).release();
+        verify(listenerMock).destroyed(taskId.get());
+        assertThatThrownBy(proxy::call).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void submitAllCancelsRejectedChunk() {
+        final ExecutorService delegate = mock(ExecutorService.class);
+        final ArgumentCaptor<Runnable> accepted = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().doThrow(new RejectedExecutionException("rejected")).when(delegate).execute(accepted.capture());
+        final TaskPreservingExecutorService preserving = new TaskPreservingExecutorService(testee, delegate);
+        final AtomicInteger executed = new AtomicInteger();
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(executed::incrementAndGet);
+        }
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        testee.runInScope(() -> {
+            taskId.set(TaskIdHolder.get().orElse(null));
+            assertThatThrownBy(() -> preserving.submitAll(tasks, 2)).isInstanceOf(RejectedExecutionException.class);
+        });
+        verify(delegate, times(2)).execute(any());
+
+        // Only the chunk handed over keeps the TaskScope alive
+        verify(listenerMock, never()).destroyed(any());
+        accepted.getAllValues().get(0).run();
+        assertThat(executed).hasValue(2);
+        verify(listenerMock).destroyed(taskId.get());
+    }
+
+    @Test
+    void serializingExecutesTasksOfScopeOneAtATimeInOrder() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final ExecutorService serializing = testee.serializing(pool);
+            final List<Integer> executed = new ArrayList<>();
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger overlaps = new AtomicInteger();
+            final List<Future<?>> futures = testee.callInScope(() -> {
+                final List<Future<?>> submitted = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    final int number = i;
+                    submitted.add(serializing.submit(() -> {
+                        if (running.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        // Not synchronized, relies on the happens-before between the tasks
+                        executed.add(number);
+                        running.decrementAndGet();
+                    }));
+                }
+                return submitted;
+            });
+            for (final Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertThat(overlaps).hasValue(0);
+            assertThat(executed).hasSize(100).isSorted();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void serializingContinuesAfterFailedTaskIfNotHandedOver() throws Exception {
+        // No thread is available to take over, so the worker must continue itself
+        final ExecutorService pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        try {
+            final ExecutorService serializing = testee.serializing(pool);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch executed = new CountDownLatch(2);
+            testee.runInScope(() -> {
+                serializing.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                serializing.execute(() -> {
+                    executed.countDown();
+                    throw new IllegalStateException("failed");
+                });
+                serializing.execute(executed::countDown);
+            });
+            release.countDown();
+            assertThat(executed.await(5, TimeUnit.SECONDS)).isTrue();
+            verify(listenerMock, timeout(5000)).destroyed(any());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void serializingShutdownNowReleasesQueuedTasks() throws Exception {
+        final ExecutorService serializing = testee.serializing(Executors.newSingleThreadExecutor());
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean executed = new AtomicBoolean();
+        final Future<?> queued = testee.callInScope(() -> {
+            serializing.submit(() -> {
+                started.countDown();
+                Thread.sleep(10_000);
+                return null;
+            });
+            return serializing.submit(() -> executed.set(true));
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final List<Runnable> pending = serializing.shutdownNow();
+        assertThat(pending).hasSize(1);
+        verify(listenerMock, timeout(5000)).destroyed(any());
+
+        // Dropped tasks must not re-create the scope
+        pending.get(0).run();
+        assertThat(executed).isFalse();
+        assertThat(queued).isDone();
+    }
+
+    @Test
+    void ringBufferExecutorKeepsScopeUntilTasksHaveRun() throws Exception {
+        final TaskPreservingRingBufferExecutor ringBuffer = new TaskPreservingRingBufferExecutor(testee, 2);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicReference<TaskId> taskId = new AtomicReference<>();
+            final Future<TaskId> future = testee.callInScope(() -> {
+                taskId.set(TaskIdHolder.get().orElse(null));
+                return ringBuffer.submit(() -> {
+                    release.await();
+                    return TaskIdHolder.get().orElse(null);
+                });
+            });
+            verify(listenerMock, never()).destroyed(any());
+
+            release.countDown();
+            assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(taskId.get());
+            verify(listenerMock, timeout(5000)).destroyed(taskId.get());
+        } finally {
+            ringBuffer.shutdownNow();
+        }
+    }
+
+    @Test
+    void ringBufferExecutorReleasesTasksSubmittedDuringShutdown() throws Exception {
+        final AtomicInteger live = new AtomicInteger();
+        testee.addListener(new TaskScopeListener() {
+            @Override
+            public void initialized(final TaskId taskId) {
+                live.incrementAndGet();
+            }
+
+            @Override
+            public void destroyed(final TaskId taskId) {
+                live.decrementAndGet();
+            }
+        });
+        for (int round = 0; round < 50; round++) {
+            final TaskPreservingRingBufferExecutor ringBuffer = new TaskPreservingRingBufferExecutor(testee, 2, 1024, 8);
+            final Thread[] submitters = new Thread[4];
+            for (int i = 0; i < submitters.length; i++) {
+                submitters[i] = new Thread(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        try {
+                            testee.runInScope(() -> ringBuffer.execute(() -> {
+                            }));
+                        } catch (final RejectedExecutionException e) {
+                            // Shut down concurrently
+                        }
+                    }
+                });
+                submitters[i].start();
+            }
+            ringBuffer.shutdown();
+            for (final Thread submitter : submitters) {
+                submitter.join();
+            }
+            assertThat(ringBuffer.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        // Tasks offered after the workers had terminated must not keep their TaskScope alive
+        for (int i = 0; i < 500 && live.get() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(live).hasValue(0);
+    }
+
+    @Test
+    void completionHandlerIsNotifiedInScopeAfterIo() throws Exception {
+        final Path file = Files.createTempFile("taskscoped", ".txt");
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE)) {
+            final CompletableFuture<TaskId> notified = new CompletableFuture<>();
+            final AtomicReference<TaskId> taskId = new AtomicReference<>();
+            testee.runInScope(() -> {
+                taskId.set(TaskIdHolder.get().orElse(null));
+                channel.write(ByteBuffer.wrap(new byte[]{42}), 0, null,
+                        testee.preserving(new CompletionHandler<Integer, Object>() {
+                            @Override
+                            public void completed(final Integer result, final Object attachment) {
+                                notified.complete(TaskIdHolder.get().orElse(null));
+                            }
+
+                            @Override
+                            public void failed(final Throwable exc, final Object attachment) {
+                                notified.completeExceptionally(exc);
+                            }
+                        }));
+            });
+
+            assertThat(notified.get(5, TimeUnit.SECONDS)).isSameAs(taskId.get());
+            verify(listenerMock, timeout(5000)).destroyed(taskId.get());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void orphanedTaskReleasesScopeOnceUnreachable() throws Exception {
+        testee.setOrphanDetection(true);
+        final ThreadPoolExecutor discarding = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadPoolExecutor.DiscardPolicy());
+        discarding.shutdown();
+        final ExecutorService preserving = testee.preserving(discarding);
+        final AtomicReference<TaskId> taskId = new AtomicReference<>();
+        testee.runInScope(() -> {
+            taskId.set(TaskIdHolder.get().orElse(null));
+            // Silently discarded, without being executed
+            preserving.execute(() -> {
+            });
+        });
+        verify(listenerMock, never()).destroyed(any());
+
+        try {
+            // Released by the daemon thread once collected, without any further interaction
+            for (int i = 0; i < 50 && testee.getReleasedOrphanCount() == 0; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertThat(testee.getReleasedOrphanCount()).isEqualTo(1);
+            verify(listenerMock, timeout(5000)).destroyed(taskId.get());
+        } finally {
+            testee.setOrphanDetection(false);
+        }
+    }
+
+    @Test
+    void inspectListsLiveScopes() {
+        testee.setCreationSampling(1);
+        testee.setLeakThreshold(1, TimeUnit.NANOSECONDS);
+        final TaskLocal<StringBuilder> taskLocal = new TaskLocal<>(testee, StringBuilder::new);
+        testee.runInScope(() -> {
+            taskLocal.get();
+            final List<TaskScopeInfo> infos = testee.inspect();
+            assertThat(infos).hasSize(1);
+            final TaskScopeInfo info = infos.get(0);
+            assertThat(info.getTaskId()).isEqualTo(TaskIdHolder.get().orElse(null));
+            assertThat(info.getRunningCount()).isEqualTo(1);
+            assertThat(info.getPendingCount()).isZero();
+            assertThat(info.getInstanceTypes()).containsExactly(StringBuilder.class.getName());
+            assertThat(info.getCreationStack()).isPresent();
+            assertThat(info.isSuspectedLeak()).isTrue();
+            assertThat(testee.suspectedLeaks()).hasSize(1);
+        });
+
+        assertThat(testee.inspect()).isEmpty();
+    }
+
+    @Test
+    void trivialTaskRunsInline() throws Exception {
+        testee.setInlinePolicy(InlinePolicy.trivialTasks());
+        final Callable<Thread> currentThread = Thread::currentThread;
+        testee.callInScope(() -> {
+            final Future<Thread> inline = executor.submit(TrivialTask.of(currentThread));
+            assertThat(inline.isDone()).isTrue();
+            assertThat(inline.get()).isSameAs(Thread.currentThread());
+            assertThat(executor.submit(currentThread).get(5, TimeUnit.SECONDS)).isNotSameAs(Thread.currentThread());
+            return null;
+        });
+    }
+
+    @Test
+    void trivialTaskOfActivatedScopeIsNotRunInline() throws Exception {
+        testee.setInlinePolicy(InlinePolicy.trivialTasks());
+        // Activated, but not entered, so the TaskScope does not exist while the task would run inline
+        final Callable<Thread> currentThread = Thread::currentThread;
+        TaskScopeEngine.activate();
+        final Future<Thread> future = executor.submit(TrivialTask.of(currentThread));
+        assertThat(future.get(5, TimeUnit.SECONDS)).isNotSameAs(Thread.currentThread());
+    }
+
+    @Test
+    void submitIsRejectedOverMemoryBudget() throws Exception {
+        testee.setMemoryBudget(1000, 0);
+        final TaskLocal<MemoryFootprint> large = new TaskLocal<>(testee, () -> () -> 2000);
+        testee.callInScope(() -> {
+            assertThat(executor.submit(() -> "accepted").get(5, TimeUnit.SECONDS)).isEqualTo("accepted");
+            large.get();
+            assertThatThrownBy(() -> executor.submit(() -> "rejected")).isInstanceOf(
+                    RejectedExecutionException.class);
+            return null;
+        });
+
+        assertThat(testee.getBudgetViolationCount()).isEqualTo(1);
+    }
+
+    @Test
+    void estimatedBytesFollowRegistrations() {
+        testee.setMemoryBudget(1000, 10);
+        final TaskId taskId = TaskId.create();
+        final MemoryFootprint large = () -> 2000;
+        final Object small = new Object();
+        testee.register(taskId, large);
+        testee.register(taskId, small);
+        assertThat(testee.estimatedBytes(taskId)).isEqualTo(2010);
+
+        testee.unregister(taskId, large);
+        assertThat(testee.estimatedBytes(taskId)).isEqualTo(10);
+        testee.unregister(taskId, small);
+        assertThat(testee.estimatedBytes(taskId)).isZero();
+    }
+
+    @Test
+    void preservingThreadPoolExecutorForwardsConfiguration() throws Exception {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        try {
+            final ThreadPoolExecutor preserving = testee.preserving(pool);
+            preserving.setMaximumPoolSize(2);
+            assertThat(pool.getMaximumPoolSize()).isEqualTo(2);
+
+            final AtomicReference<TaskId> initial = new AtomicReference<>();
+            final Future<TaskId> future = testee.callInScope(() -> {
+                initial.set(TaskIdHolder.get().orElse(null));
+                return preserving.submit(() -> TaskIdHolder.get().orElse(null));
+            });
+            assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(initial.get());
+            assertThat(preserving.getCompletedTaskCount()).isEqualTo(pool.getCompletedTaskCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void preservingScheduledThreadPoolExecutorKeepsScopeForDelayedTask() throws Exception {
+        final ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        try {
+            final ScheduledThreadPoolExecutor preserving = testee.preserving(pool);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicReference<TaskId> initial = new AtomicReference<>();
+            final Future<TaskId> future = testee.callInScope(() -> {
+                initial.set(TaskIdHolder.get().orElse(null));
+                return preserving.schedule(() -> {
+                    release.await();
+                    return TaskIdHolder.get().orElse(null);
+                }, 10, TimeUnit.MILLISECONDS);
+            });
+            verify(listenerMock, never()).destroyed(any());
+            release.countDown();
+            assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(initial.get());
+            verify(listenerMock, timeout(5000)).destroyed(initial.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void unreachablePreservingPoolsDoNotShutDownDelegate() throws Exception {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        final ScheduledThreadPoolExecutor scheduledPool = new ScheduledThreadPoolExecutor(1);
+        try {
+            final WeakReference<ThreadPoolExecutor> preserving = new WeakReference<>(testee.preserving(pool));
+            final WeakReference<ScheduledThreadPoolExecutor> scheduledPreserving =
+                    new WeakReference<>(testee.preserving(scheduledPool));
+            for (int i = 0; i < 50 && (preserving.get() != null || scheduledPreserving.get() != null); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertThat(preserving.get()).isNull();
+            assertThat(scheduledPreserving.get()).isNull();
+            System.runFinalization();
+
+            assertThat(pool.isShutdown()).isFalse();
+            assertThat(scheduledPool.isShutdown()).isFalse();
+        } finally {
+            pool.shutdownNow();
+            scheduledPool.shutdownNow();
+        }
+    }
+
+    @Test
+    void preservingForkJoinPoolExecutesForkJoinTaskInScope() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final ForkJoinPool preserving = testee.preserving(pool);
+            final AtomicReference<TaskId> initial = new AtomicReference<>();
+            final ForkJoinTask<TaskId> task = testee.callInScope(() -> {
+                initial.set(TaskIdHolder.get().orElse(null));
+                return preserving.submit(ForkJoinTask.adapt(() -> TaskIdHolder.get().orElse(null)));
+            });
+            assertThat(task.get(5, TimeUnit.SECONDS)).isSameAs(initial.get());
+            assertThat(preserving.getParallelism()).isEqualTo(2);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void decoratedTaskUsesDelegateAsRegistrationControlledByCaller() throws Exception {
+        final Runnable registeredByCaller = () -> {
+        };
+        final Runnable unregisteredByCaller = () -> {
+        };
+        final TaskPreservingExecutorService decorating = new TaskPreservingExecutorService(testee, executor);
+        final TaskId taskId = testee.callInScope(() -> {
+            final TaskId current = TaskIdHolder.get().orElse(null);
+            testee.register(current, registeredByCaller);
+            decorating.decorate(registeredByCaller, false, true).run();
+            decorating.decorate(unregisteredByCaller, true, false).run();
+            return current;
+        });
+        verify(listenerMock, never()).destroyed(any());
+
+        testee.unregister(taskId, unregisteredByCaller);
+        verify(listenerMock).destroyed(taskId);
+    }
+
+    @Test
+    void removedListenerIsNotNotified() {
+        testee.removeListener(listenerMock);
+        testee.runInScope(() -> {
+        });
+        verifyZeroInteractions(listenerMock);
+    }
+
+    /**
+     * Typed interface token for the contextual proxies.
+     */
+    interface TaskIdCallable extends Callable<TaskId> {
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.enterprise.util.AnnotationLiteral;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Memoizes the results of the annotated methods in the current TaskScope. <br>
+ * The results are keyed by the bean instance, the method and its parameters, which must implement {@code equals} and
+ * {@code hashCode}. The parameters must be effectively immutable, as modifying them after the invocation changes the
+ * key of the memoized result. Results are only shared between invocations on the same instance, e.g. the single
+ * instance of a normal scoped bean, but not between several {@code @Dependent} instances.
+ * If several threads of the same TaskScope invoke a method with equal parameters at once, it is only invoked by one of
+ * them, while the others wait for its result. Exceptions are passed to all waiting threads, but are not memoized.
+ * Only recursive invocations with equal parameters on the same thread are detected and invoked again. Two threads,
+ * each computing a result that requires the result currently computed by the other one, wait for each other forever.
+ * <p>
+ * The results are dropped with the TaskScope. Invocations outside of an active TaskScope are not memoized. Only
+ * methods without side effects should be annotated, e.g. lookups of reference data or permissions.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+@Target({TYPE, METHOD})
+@Retention(RUNTIME)
+@Documented
+@InterceptorBinding
+@Inherited
+public @interface TaskCached {
+
+    /**
+     * Supports inline instantiation of the {@link TaskCached} interceptor binding.
+     */
+    class Literal extends AnnotationLiteral<TaskCached> implements TaskCached {
+
+        public static final Literal INSTANCE = new Literal();
+
+        private Literal() {
+        }
+    }
+}
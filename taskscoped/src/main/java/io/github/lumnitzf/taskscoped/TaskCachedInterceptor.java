@@ -0,0 +1,150 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interceptor implementation for {@link TaskCached}.
+ * <p>
+ * The results are stored in the {@link TaskScopedContext#resultCache() result cache} of the current TaskScope. The
+ * first invoking thread stores a pending {@link Flight}, which is completed with its result. Further threads with an
+ * equal key wait for the flight instead of invoking the method (single-flight). The key contains the identity of the
+ * target instance, so that instances of the same bean class with different state do not share results.
+ * </p>
+ * <p>
+ * Runs after the {@link TaskScopeEnabledInterceptor}, so that methods annotated with both memoize in the enabled
+ * TaskScope.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+@TaskCached
+@Interceptor
+@Priority(Interceptor.Priority.LIBRARY_AFTER + 100)
+class TaskCachedInterceptor {
+
+    @Inject
+    private TaskScopedExtension extension;
+
+    @AroundInvoke
+    public Object invoke(final InvocationContext invocation) throws Exception {
+        final TaskScopedContext context = extension.getContext();
+        if (!context.isActive()) {
+            return invocation.proceed();
+        }
+        final ConcurrentMap<Object, Flight> cache = context.resultCache();
+        final CacheKey key = new CacheKey(invocation.getTarget(), invocation.getMethod(),
+                invocation.getParameters());
+        final Flight flight = new Flight();
+        final Flight existing = cache.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.await(invocation);
+        }
+        try {
+            final Object result = invocation.proceed();
+            flight.complete(result);
+            return result;
+        } catch (final Exception | Error e) {
+            // Failures are not memoized, the next invocation tries again
+            cache.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * The invocation computing the result for a key, which other threads may wait for.
+     */
+    static final class Flight extends CompletableFuture<Object> {
+
+        /**
+         * The thread computing the result, {@code null} once completed.
+         */
+        private volatile Thread owner = Thread.currentThread();
+
+        @Override
+        public boolean complete(final Object value) {
+            owner = null;
+            return super.complete(value);
+        }
+
+        @Override
+        public boolean completeExceptionally(final Throwable ex) {
+            owner = null;
+            return super.completeExceptionally(ex);
+        }
+
+        /**
+         * @param invocation waiting for the result
+         *
+         * @return the result of the flight
+         *
+         * @throws Exception the exception of the flight
+         */
+        private Object await(final InvocationContext invocation) throws Exception {
+            if (owner == Thread.currentThread()) {
+                // Recursive invocation with the same key, waiting would never return
+                return invocation.proceed();
+            }
+            try {
+                return join();
+            } catch (final CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+
+    /**
+     * Key of a result, consisting of the target instance, the invoked method and its parameters. The target is compared
+     * by identity, as beans usually do not implement {@code equals}. The parameter array is copied, as later
+     * interceptors may modify it, but the parameters themselves must not be modified while the key is cached.
+     */
+    private static final class CacheKey {
+
+        private final Object target;
+
+        private final Method method;
+
+        private final Object[] parameters;
+
+        private final int hashCode;
+
+        private CacheKey(final Object target, final Method method, final Object[] parameters) {
+            this.target = target;
+            this.method = method;
+            this.parameters = parameters == null ? null : parameters.clone();
+            this.hashCode = 31 * (31 * System.identityHashCode(target) + method.hashCode())
+                    + Arrays.deepHashCode(this.parameters);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CacheKey cacheKey = (CacheKey) o;
+            return hashCode == cacheKey.hashCode && target == cacheKey.target && method.equals(cacheKey.method)
+                    && Arrays.deepEquals(parameters, cacheKey.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
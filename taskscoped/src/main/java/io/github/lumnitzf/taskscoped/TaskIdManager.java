@@ -0,0 +1,28 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Produces;
+
+/**
+ * Provides proxy free access to the current {@link TaskId}
+ *
+ * @author Fritz Lumnitz
+ */
+@ApplicationScoped
+public class TaskIdManager {
+
+    // Required for CDI Proxy
+    TaskIdManager() {
+    }
+
+    /**
+     * @return proxy free instance of the current TaskId
+     */
+    // Also serves as producer for injection of the current TaskId. However, this instance is still wrapped in a proxy
+    // because it does not have dependent scope
+    @Produces
+    @TaskScoped
+    public TaskId getId() {
+        return TaskIdHolder.get().orElseThrow(Exceptions::taskScopeNotActive);
+    }
+}
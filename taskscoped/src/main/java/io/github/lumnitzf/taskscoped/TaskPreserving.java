@@ -26,6 +26,14 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * ContextNotActiveException} will be thrown.
  * </p>
  * <p>
+ * Producers may also produce a {@link java.util.concurrent.ScheduledExecutorService}, {@link
+ * java.util.concurrent.ThreadPoolExecutor}, {@link java.util.concurrent.ScheduledThreadPoolExecutor} or {@link
+ * java.util.concurrent.ForkJoinPool}. The produced decorator is of the most specific of these types which is a subtype
+ * of all bean types of the producer, so the specific API of the underlying executor remains available. Producers of
+ * subtypes must restrict their bean types using {@link javax.enterprise.inject.Typed}, otherwise they are not
+ * decorated.
+ * </p>
+ * <p>
  * A possibility to use the same underlying ExecutorService is to use multiple producers:
  * </p>
  * <pre>
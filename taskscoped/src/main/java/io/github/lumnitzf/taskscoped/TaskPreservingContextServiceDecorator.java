@@ -0,0 +1,77 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.annotation.Priority;
+import javax.decorator.Decorator;
+import javax.decorator.Delegate;
+import javax.enterprise.concurrent.ContextService;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link TaskPreserving} decorator for {@link ContextService}. <br>
+ * The contextual proxies of the delegate are wrapped into {@link TaskPreservingProxy task preserving proxies}, which
+ * invoke the instance in the same TaskScope as the Thread creating the proxy. The TaskScope is kept alive until the
+ * holder of the proxy {@link TaskPreservingProxy#release() releases} it.
+ *
+ * @author Fritz Lumnitz
+ * @see TaskScopeEngine#contextualProxy(Object, Class[])
+ */
+@Decorator
+@Priority(Interceptor.Priority.LIBRARY_AFTER)
+public class TaskPreservingContextServiceDecorator implements ContextService {
+
+    /**
+     * The {@link BeanManager} to get the {@link TaskScopedContext}.
+     */
+    protected final BeanManager beanManager;
+
+    /**
+     * The {@link TaskScopedContext} creating the proxies.
+     */
+    protected final TaskScopedContext context;
+
+    /**
+     * The delegate providing the container context of the proxies.
+     */
+    protected final ContextService delegate;
+
+    @Inject
+    protected TaskPreservingContextServiceDecorator(final BeanManager beanManager,
+                                                    @Delegate @TaskPreserving final ContextService delegate) {
+        this.beanManager = Objects.requireNonNull(beanManager, "beanManager");
+        // The context itself may only be acquired via the BeanManager while it is active
+        this.context = beanManager.getExtension(TaskScopedExtension.class).getContext();
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+    }
+
+    @Override
+    public <T> T createContextualProxy(final T instance, final Class<T> intf) {
+        return context.contextualProxy(delegate.createContextualProxy(instance, intf), intf);
+    }
+
+    @Override
+    public Object createContextualProxy(final Object instance, final Class<?>... interfaces) {
+        return context.contextualProxy(delegate.createContextualProxy(instance, interfaces), interfaces);
+    }
+
+    @Override
+    public <T> T createContextualProxy(final T instance, final Map<String, String> executionProperties,
+                                       final Class<T> intf) {
+        return context.contextualProxy(delegate.createContextualProxy(instance, executionProperties, intf), intf);
+    }
+
+    @Override
+    public Object createContextualProxy(final Object instance, final Map<String, String> executionProperties,
+                                        final Class<?>... interfaces) {
+        return context.contextualProxy(delegate.createContextualProxy(instance, executionProperties, interfaces),
+                interfaces);
+    }
+
+    @Override
+    public Map<String, String> getExecutionProperties(final Object contextualProxy) {
+        return delegate.getExecutionProperties(TaskPreservingInvocationHandler.unwrap(contextualProxy));
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.annotation.Priority;
+import javax.decorator.Decorator;
+import javax.decorator.Delegate;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link TaskPreserving} decorator for {@link ExecutorService}. <br>
+ * Wraps all provided {@link Runnable} and {@link Callable} to be executed in the same TaskScope as the invoker Thread.
+ * Subclasses may use the various {@code decorate(...)} methods to achieve the same behavior.
+ *
+ * @author Fritz Lumnitz
+ */
+@Decorator
+@Priority(Interceptor.Priority.LIBRARY_AFTER)
+public class TaskPreservingExecutorServiceDecorator extends TaskPreservingExecutorService {
+
+    /**
+     * The {@link BeanManager} to get the {@link TaskScopedContext}.
+     */
+    protected final BeanManager beanManager;
+
+    @Inject
+    protected TaskPreservingExecutorServiceDecorator(final BeanManager beanManager,
+                                                     @Delegate @TaskPreserving final ExecutorService delegate) {
+        super(getContext(beanManager), delegate);
+        this.beanManager = beanManager;
+    }
+
+    private static TaskScopedContext getContext(final BeanManager beanManager) {
+        Objects.requireNonNull(beanManager, "beanManager");
+        // The context itself may only be acquired via the BeanManager while it is active
+        return beanManager.getExtension(TaskScopedExtension.class).getContext();
+    }
+}
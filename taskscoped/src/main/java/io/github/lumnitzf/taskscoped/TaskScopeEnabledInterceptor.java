@@ -0,0 +1,110 @@
+package io.github.lumnitzf.taskscoped;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Interceptor implementation for {@link TaskScopeEnabled}.
+ * <p>
+ * If the invocation does not happen inside a TaskScope, the TaskScope is only marked as pending. It is created and
+ * entered the first time it is actually used, e.g. by accessing a {@link TaskScoped} bean or submitting to a {@link
+ * TaskPreserving} ExecutorService. Invocations never using the TaskScope therefore neither create a TaskId nor fire
+ * any events.
+ * </p>
+ * <p>
+ * Invocations on a thread which already entered or enabled the TaskScope are passed on directly, so that deeply
+ * nested invocations only pay for the TaskScope once.
+ * </p>
+ * <p>
+ * If the invocation returns a {@link CompletionStage}, and the TaskScope has been entered, the TaskScope is kept alive
+ * until the stage completes, without blocking. Methods returning a {@link java.util.concurrent.Future} are expected to
+ * compute it by a {@link TaskPreserving} ExecutorService, whose tasks keep the TaskScope alive on their own.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+@TaskScopeEnabled
+@Interceptor
+@Priority(Interceptor.Priority.LIBRARY_AFTER)
+class TaskScopeEnabledInterceptor {
+
+    @Inject
+    private TaskScopedExtension extension;
+
+    @AroundInvoke
+    public Object invoke(final InvocationContext invocation) throws Exception {
+        final TaskScopedContext context = extension.getContext();
+        if (context.isEntered() || TaskIdHolder.isPending()) {
+            // Nested invocation, the outer invocation already enabled the TaskScope and will also exit it
+            return keepAliveUntilComplete(invocation.proceed(), context);
+        }
+        if (!TaskIdHolder.isPresentOrPending()) {
+            return invokeLazily(invocation, context);
+        }
+        // Activated, but not yet entered
+        final TaskId previous = context.enter();
+        try {
+            return keepAliveUntilComplete(invocation.proceed(), context);
+        } finally {
+            context.exit(previous);
+        }
+    }
+
+    private Object invokeLazily(final InvocationContext invocation, final TaskScopedContext context) throws Exception {
+        TaskIdHolder.setPending(context);
+        try {
+            return keepAliveUntilComplete(invocation.proceed(), context);
+        } finally {
+            if (!TaskIdHolder.removePending()) {
+                // The TaskScope was materialized during the invocation
+                context.exit(null);
+            }
+        }
+    }
+
+    /**
+     * Keeps the entered TaskScope alive until the {@code result} completes, if it is an incomplete {@link
+     * CompletionStage}. The TaskScope is released by the thread completing the stage, or once it is {@link
+     * TaskScopeEngine#cancel(TaskId, boolean) cancelled}.
+     *
+     * @param result  of the invocation
+     * @param context managing the TaskScope
+     *
+     * @return {@code result}
+     */
+    private static Object keepAliveUntilComplete(final Object result, final TaskScopedContext context) {
+        if (!(result instanceof CompletionStage) || !context.isEntered()
+                || (result instanceof CompletableFuture && ((CompletableFuture<?>) result).isDone())) {
+            return result;
+        }
+        final CompletionStage<?> stage = (CompletionStage<?>) result;
+        final TaskId taskId = TaskIdHolder.get().orElseThrow(Exceptions::taskScopeNotActive);
+        final PendingStage pending = new PendingStage();
+        context.register(taskId, pending);
+        stage.whenComplete((value, failure) -> context.unregister(taskId, pending));
+        return result;
+    }
+
+    /**
+     * Registration of an incomplete {@link CompletionStage}, which is released once the TaskScope is cancelled.
+     */
+    private static final class PendingStage implements PendingWork {
+
+        private volatile boolean cancelled = false;
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
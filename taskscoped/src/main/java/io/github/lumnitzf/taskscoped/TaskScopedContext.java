@@ -0,0 +1,294 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.Destroyed;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.context.spi.Context;
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.util.AnnotationLiteral;
+import java.lang.annotation.Annotation;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link Context} implementation for {@link TaskScoped}.
+ * <p>
+ * The lifecycle of the TaskScopes is managed by the {@link TaskScopeEngine}. This context stores the contextual
+ * instances in the TaskScopes, and fires the lifecycle changes as CDI events.
+ * </p>
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskScopedContext extends TaskScopeEngine implements Context {
+
+    /**
+     * The default maximum amount of {@link Recyclable recycled} instances pooled per bean.
+     */
+    public static final int DEFAULT_RECYCLING_CAPACITY = 64;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScopedContext.class);
+
+    /**
+     * The listener firing the lifecycle changes as CDI events.
+     */
+    private final TaskScopeListener eventFiringListener;
+
+    /**
+     * The results memoized by the {@link TaskCachedInterceptor}, dropped with the TaskScope.
+     */
+    private final TaskLocal<ConcurrentMap<Object, TaskCachedInterceptor.Flight>> resultCache =
+            new TaskLocal<>(this, ConcurrentHashMap::new);
+
+    /**
+     * The pools of {@link Recyclable recycled} instances per bean, created on the first recycled instance.
+     */
+    private final ConcurrentMap<Contextual<?>, RecyclingPool<Recycled<?>>> recycled = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum amount of recycled instances pooled per bean, {@code 0} if disabled.
+     */
+    private volatile int recyclingCapacity = DEFAULT_RECYCLING_CAPACITY;
+
+    public TaskScopedContext(final BeanManager beanManager) {
+        eventFiringListener = new EventFiringListener(Objects.requireNonNull(beanManager));
+        addListener(eventFiringListener);
+    }
+
+    /**
+     * Enables or disables firing the lifecycle changes as CDI events. Enabled by default.
+     * <p>
+     * The events are fired synchronously by the thread causing the change, on each task hop. If only some observers
+     * require the changes, e.g. for auditing, they may be notified by an {@link AsyncTaskScopeListener} instead, and the
+     * events disabled.
+     * </p>
+     *
+     * @param firingEvents {@code true} to fire the events
+     */
+    public void setFiringEvents(final boolean firingEvents) {
+        removeListener(eventFiringListener);
+        if (firingEvents) {
+            addListener(eventFiringListener);
+        }
+    }
+
+    /**
+     * @return the results memoized by the {@link TaskCachedInterceptor} in the current TaskScope
+     *
+     * @throws javax.enterprise.context.ContextNotActiveException if the TaskScope is not active
+     */
+    ConcurrentMap<Object, TaskCachedInterceptor.Flight> resultCache() {
+        return resultCache.get();
+    }
+
+    /**
+     * Sets the maximum amount of {@link Recyclable recycled} instances pooled per bean. Instances pooled so far are
+     * destroyed.
+     *
+     * @param recyclingCapacity the maximum amount of pooled instances, {@code 0} to disable recycling
+     *
+     * @throws IllegalArgumentException if {@code recyclingCapacity} is negative
+     * @see #DEFAULT_RECYCLING_CAPACITY
+     */
+    public void setRecyclingCapacity(final int recyclingCapacity) {
+        if (recyclingCapacity < 0) {
+            throw new IllegalArgumentException("recyclingCapacity must not be negative, but was " + recyclingCapacity);
+        }
+        this.recyclingCapacity = recyclingCapacity;
+        // The pools are created again with the new capacity. Each pool is removed before it is drained, so that
+        // instances offered concurrently are either drained or noticed by their releaser, see offer()
+        for (final Contextual<?> contextual : recycled.keySet()) {
+            final RecyclingPool<Recycled<?>> pool = recycled.remove(contextual);
+            if (pool != null) {
+                pool.drain().forEach(Recycled::destroy);
+            }
+        }
+    }
+
+    /**
+     * @return the maximum amount of recycled instances pooled per bean, {@code 0} if recycling is disabled
+     */
+    public int getRecyclingCapacity() {
+        return recyclingCapacity;
+    }
+
+    /**
+     * Destroys all pooled {@link Recyclable recycled} instances, e.g. when the container shuts down.
+     */
+    public void clearRecycled() {
+        recycled.values().forEach(pool -> pool.drain().forEach(Recycled::destroy));
+    }
+
+    @Override
+    public Class<? extends Annotation> getScope() {
+        return TaskScoped.class;
+    }
+
+    @Override
+    public <T> T get(final Contextual<T> contextual, final CreationalContext<T> creationalContext) {
+        final TaskScopeInstances instances = currentInstances();
+        // Avoid creating the lambdas for existing instances
+        final T existing = instances.get(contextual);
+        if (existing != null) {
+            return existing;
+        }
+        final RecyclingPool<Recycled<?>> pool = recycled.get(contextual);
+        @SuppressWarnings("unchecked")
+        final Recycled<T> reused = pool == null ? null : (Recycled<T>) pool.poll();
+        if (reused == null) {
+            return instances.get(contextual, () -> contextual.create(creationalContext),
+                    instance -> release(contextual, instance, creationalContext));
+        }
+        final T instance = instances.get(contextual, () -> reused.instance,
+                ignored -> release(contextual, reused.instance, reused.creationalContext));
+        if (instance != reused.instance && !offer(contextual, reused, pool.capacity())) {
+            // Created concurrently by another thread of the TaskScope
+            reused.destroy();
+        }
+        return instance;
+    }
+
+    /**
+     * Recycles the {@code instance} of a destroyed TaskScope, if it is {@link Recyclable} and fits into the pool of its
+     * bean. Destroys it otherwise.
+     */
+    private <T> void release(final Contextual<T> contextual, final T instance,
+                             final CreationalContext<T> creationalContext) {
+        final int capacity = recyclingCapacity;
+        if (capacity > 0 && instance instanceof Recyclable) {
+            try {
+                ((Recyclable) instance).recycle();
+                if (offer(contextual, new Recycled<>(contextual, instance, creationalContext), capacity)) {
+                    return;
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not recycle {}, destroying it instead", instance, e);
+            }
+        }
+        contextual.destroy(instance, creationalContext);
+    }
+
+    /**
+     * @return {@code true} if the instance has been pooled or destroyed, {@code false} if the pool is full
+     */
+    private boolean offer(final Contextual<?> contextual, final Recycled<?> instance, final int capacity) {
+        final RecyclingPool<Recycled<?>> pool = recycled.computeIfAbsent(contextual,
+                ignored -> new RecyclingPool<>(capacity));
+        if (!pool.offer(instance)) {
+            return false;
+        }
+        if (recycled.get(contextual) != pool) {
+            // Removed by setRecyclingCapacity() in the meantime, which may have drained it before the offer
+            pool.drain().forEach(Recycled::destroy);
+        }
+        return true;
+    }
+
+    @Override
+    public <T> T get(final Contextual<T> contextual) {
+        return currentInstances().get(contextual);
+    }
+
+    @Override
+    protected RuntimeException taskScopeNotActive() {
+        return Exceptions.taskScopeNotActive();
+    }
+
+    /**
+     * A pooled {@link Recyclable} instance, together with the {@link CreationalContext} it was created with.
+     */
+    private static final class Recycled<T> {
+
+        private final Contextual<T> contextual;
+
+        private final T instance;
+
+        private final CreationalContext<T> creationalContext;
+
+        private Recycled(final Contextual<T> contextual, final T instance,
+                         final CreationalContext<T> creationalContext) {
+            this.contextual = contextual;
+            this.instance = instance;
+            this.creationalContext = creationalContext;
+        }
+
+        private void destroy() {
+            contextual.destroy(instance, creationalContext);
+        }
+    }
+
+    /**
+     * {@link TaskScopeListener} firing the lifecycle changes as events, using the {@link BeanManager}.
+     */
+    private static class EventFiringListener implements TaskScopeListener {
+
+        private final BeanManager beanManager;
+
+        private EventFiringListener(final BeanManager beanManager) {
+            this.beanManager = beanManager;
+        }
+
+        @Override
+        public void initialized(final TaskId taskId) {
+            beanManager.fireEvent(taskId, new InitializedLiteral(TaskScoped.class));
+        }
+
+        @Override
+        public void entered(final TaskId taskId) {
+            beanManager.fireEvent(taskId, AfterTaskEnter.Literal.INSTANCE);
+        }
+
+        @Override
+        public void exiting(final TaskId taskId) {
+            beanManager.fireEvent(taskId, BeforeTaskExit.Literal.INSTANCE);
+        }
+
+        @Override
+        public void destroyed(final TaskId taskId) {
+            beanManager.fireEvent(taskId, new DestroyedLiteral(TaskScoped.class));
+        }
+    }
+
+    /**
+     * Supports inline instantiation of the {@link Initialized} qualifier.
+     *
+     * @author Fritz Lumnitz
+     */
+    // Literal implementation pre CDI 2.0
+    static class InitializedLiteral extends AnnotationLiteral<Initialized> implements Initialized {
+        private final Class<? extends Annotation> value;
+
+        InitializedLiteral(final Class<? extends Annotation> value) {
+            this.value = value;
+        }
+
+        @Override
+        public Class<? extends Annotation> value() {
+            return value;
+        }
+    }
+
+    /**
+     * Supports inline instantiation of the {@link Destroyed} qualifier.
+     *
+     * @author Fritz Lumnitz
+     */
+    // Literal implementation pre CDI 2.0
+    static class DestroyedLiteral extends AnnotationLiteral<Destroyed> implements Destroyed {
+
+        private final Class<? extends Annotation> value;
+
+        DestroyedLiteral(final Class<? extends Annotation> value) {
+            this.value = value;
+        }
+
+        @Override
+        public Class<? extends Annotation> value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.concurrent.ContextService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
+import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AnnotatedMember;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeBeanDiscovery;
+import javax.enterprise.inject.spi.BeforeShutdown;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.InjectionPoint;
+import javax.enterprise.inject.spi.ProcessProducer;
+import javax.enterprise.inject.spi.Producer;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+
+/**
+ * Extension providing the behavior defined by {@link TaskScoped} and {@link TaskPreserving}.
+ *
+ * @author Fritz Lumnitz
+ */
+public class TaskScopedExtension implements Extension {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScopedExtension.class);
+
+    /**
+     * The types which may be decorated for {@link TaskPreserving} producers, the most specific ones first.
+     */
+    private static final List<Class<? extends ExecutorService>> SUPPORTED_TYPES = Arrays.asList(
+            ScheduledThreadPoolExecutor.class, ThreadPoolExecutor.class, ForkJoinPool.class,
+            ManagedExecutorService.class, ScheduledExecutorService.class, ExecutorService.class);
+
+    /**
+     * The context added to the container.
+     */
+    private TaskScopedContext context;
+
+    void beforeBeanDiscovery(@Observes final BeforeBeanDiscovery bbd) {
+        LOG.info("Registering task scope");
+        bbd.addScope(TaskScoped.class, true, false);
+    }
+
+    void processExecutorServiceProducer(@Observes final ProcessProducer<?, ? extends ExecutorService> pp,
+                                        final BeanManager beanManager) {
+        if (pp.getAnnotatedMember().isAnnotationPresent(TaskPreserving.class)) {
+            addTaskPreservingCapability(pp, beanManager);
+        }
+    }
+
+    void processContextServiceProducer(@Observes final ProcessProducer<?, ? extends ContextService> pp,
+                                       final BeanManager beanManager) {
+        if (!pp.getAnnotatedMember().isAnnotationPresent(TaskPreserving.class)) {
+            return;
+        }
+        if (decoratedType(pp.getAnnotatedMember(), Collections.singletonList(ContextService.class)) == null) {
+            LOG.warn("Cannot add task preserving capability to {}, as {} is not a subtype of all its bean types. "
+                    + "Restrict the bean types using @Typed.", pp.getAnnotatedMember().getJavaMember(),
+                    ContextService.class);
+            return;
+        }
+        addContextServiceCapability(pp, beanManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <X extends ContextService> void addContextServiceCapability(final ProcessProducer<?, X> pp,
+                                                                        final BeanManager beanManager) {
+        // ContextService is a subtype of all bean types of the producer
+        addTaskPreservingCapability(pp,
+                delegate -> (X) new TaskPreservingContextServiceDecorator(beanManager, delegate));
+    }
+
+    private <X> void addTaskPreservingCapability(final ProcessProducer<?, X> pp, final Function<X, X> decorator) {
+        final Producer<X> producer = pp.getProducer();
+        LOG.info("Adding task preserving capability to {}", producer);
+        pp.setProducer(new DelegateProducer<>(producer, decorator));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <X extends ExecutorService> void addTaskPreservingCapability(final ProcessProducer<?, X> pp,
+                                                                         final BeanManager beanManager) {
+        final Class<?> type = decoratedType(pp.getAnnotatedMember(), SUPPORTED_TYPES);
+        if (type == null) {
+            // Used to deploy without decoration, so it must not be turned into a definition error
+            LOG.warn("Cannot add task preserving capability to {}, as none of {} is both a supertype of the produced "
+                            + "type and a subtype of all its bean types. Restrict the bean types using @Typed.",
+                    pp.getAnnotatedMember().getJavaMember(), SUPPORTED_TYPES);
+            return;
+        }
+        final Function<ExecutorService, ExecutorService> decorator = getDecorator(type, beanManager);
+        // The decorator is an instance of all bean types of the producer
+        addTaskPreservingCapability(pp, delegate -> (X) decorator.apply(delegate));
+    }
+
+    /**
+     * Determines the type of the decorator for a {@link TaskPreserving} producer. The produced instance must be an
+     * instance of the type to be decorated, and the decorator must be an instance of all bean types of the producer.
+     *
+     * @param member    the producer
+     * @param supported the types a decorator exists for, the most specific ones first
+     *
+     * @return the most specific supported type fulfilling both conditions, {@code null} if there is none
+     */
+    private static Class<?> decoratedType(final AnnotatedMember<?> member, final List<? extends Class<?>> supported) {
+        final Class<?> produced = rawType(member.getBaseType());
+        if (produced == null) {
+            return null;
+        }
+        final Typed typed = member.getAnnotation(Typed.class);
+        // Object is always a bean type, but every type is a subtype of it
+        final Collection<? extends Type> beanTypes = typed == null ? member.getTypeClosure()
+                : Arrays.asList(typed.value());
+        for (final Class<?> candidate : supported) {
+            if (candidate.isAssignableFrom(produced) && isSubtypeOfAll(candidate, beanTypes)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSubtypeOfAll(final Class<?> type, final Collection<? extends Type> superTypes) {
+        for (final Type superType : superTypes) {
+            final Class<?> raw = rawType(superType);
+            if (raw == null || !raw.isAssignableFrom(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> rawType(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        return null;
+    }
+
+    /**
+     * @param type        the type to be decorated, one of {@link #SUPPORTED_TYPES}
+     * @param beanManager the bean manager
+     *
+     * @return the decorator creating an instance of exactly {@code type}
+     */
+    private Function<ExecutorService, ExecutorService> getDecorator(final Class<?> type,
+                                                                    final BeanManager beanManager) {
+        if (type == ManagedExecutorService.class) {
+            return delegate -> new TaskPreservingManagedExecutorServiceDecorator(beanManager, delegate);
+        } else if (type == ScheduledExecutorService.class) {
+            return delegate -> context.preserving((ScheduledExecutorService) delegate);
+        } else if (type == ThreadPoolExecutor.class) {
+            return delegate -> context.preserving((ThreadPoolExecutor) delegate);
+        } else if (type == ScheduledThreadPoolExecutor.class) {
+            return delegate -> context.preserving((ScheduledThreadPoolExecutor) delegate);
+        } else if (type == ForkJoinPool.class) {
+            return delegate -> context.preserving((ForkJoinPool) delegate);
+        }
+        return delegate -> new TaskPreservingExecutorServiceDecorator(beanManager, delegate);
+    }
+
+    void afterBeanDiscovery(@Observes final AfterBeanDiscovery abd, final BeanManager beanManager) {
+        LOG.info("Adding TaskScopedContext");
+        context = new TaskScopedContext(beanManager);
+        abd.addContext(context);
+    }
+
+    void beforeShutdown(@Observes final BeforeShutdown bs) {
+        if (context != null) {
+            context.clearRecycled();
+            context.setOrphanDetection(false);
+            context.disableSpilling();
+            context.setWorkerRetention(false);
+        }
+    }
+
+    /**
+     * Provides the {@link TaskScopedContext} independent of its activation state, in contrast to {@link
+     * BeanManager#getContext(Class)}, e.g. to configure it during startup.
+     *
+     * @return the context added to the container
+     */
+    public TaskScopedContext getContext() {
+        return context;
+    }
+
+    private static class DelegateProducer<X> implements Producer<X> {
+
+        private final Producer<X> delegate;
+        private final Function<X, X> producerWrapper;
+
+        private DelegateProducer(final Producer<X> delegate, final Function<X, X> producerWrapper) {
+            this.delegate = delegate;
+            this.producerWrapper = producerWrapper;
+        }
+
+        @Override
+        public X produce(final CreationalContext<X> ctx) {
+            // Dependent producers may return null, so we also return null instead of creating the delegate (which will throw an exception)
+            return Optional.ofNullable(delegate.produce(ctx)).map(producerWrapper).orElse(null);
+        }
+
+        @Override
+        public void dispose(final X instance) {
+            delegate.dispose(instance);
+        }
+
+        @Override
+        public Set<InjectionPoint> getInjectionPoints() {
+            return delegate.getInjectionPoints();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.lumnitzf.taskscoped;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds, with a relative precision of about 3% over the whole range of
+ * {@code long}. Each power of two is divided into {@link #SUB_BUCKETS} linear sub buckets, like in HdrHistogram, so
+ * recording is a single increment without allocation.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    long getTotalCount() {
+        return totalCount.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between {@code 0} and {@code 100}
+     *
+     * @return the highest value of the bucket containing the {@code percentile}, {@code 0} if nothing was recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        final long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, p50=%.3fms, p99=%.3fms, p99.9=%.3fms, p99.99=%.3fms, max=%.3fms",
+                getTotalCount(), millis(getValueAtPercentile(50)), millis(getValueAtPercentile(99)),
+                millis(getValueAtPercentile(99.9)), millis(getValueAtPercentile(99.99)), millis(getMax()));
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Values in [2^exponent, 2^(exponent + 1)) are divided into SUB_BUCKETS buckets
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
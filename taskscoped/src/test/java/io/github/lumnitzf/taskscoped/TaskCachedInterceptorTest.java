@@ -0,0 +1,170 @@
+package io.github.lumnitzf.taskscoped;
+
+import io.github.lumnitzf.taskscoped.beans.TaskScopeEnabledBean;
+import org.junit.jupiter.api.*;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InterceptorBinding;
+import javax.interceptor.InvocationContext;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TaskCachedInterceptorTest extends AbstractTaskScopedExtensionTest {
+
+    @Inject
+    private TaskScopeEnabledBean taskScopeEnabledBean;
+
+    @Inject
+    private LookupBean lookupBean;
+
+    @Inject
+    private LookupBean otherLookupBean;
+
+    @Inject
+    private TaskScopedExtension extension;
+
+    @Test
+    void resultIsMemoizedPerTaskScope() throws Exception {
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            assertThat(lookupBean.lookup("a")).isEqualTo("A");
+            assertThat(lookupBean.lookup("a")).isEqualTo("A");
+            assertThat(lookupBean.lookup("b")).isEqualTo("B");
+        });
+        assertThat(lookupBean.invocations).hasValue(2);
+
+        taskScopeEnabledBean.doInTaskScope(bean -> lookupBean.lookup("a"));
+        assertThat(lookupBean.invocations).hasValue(3);
+    }
+
+    @Test
+    void invocationOutsideOfTaskScopeIsNotMemoized() throws Exception {
+        lookupBean.lookup("a");
+        lookupBean.lookup("a");
+        assertThat(lookupBean.invocations).hasValue(2);
+    }
+
+    @Test
+    void resultIsNotSharedBetweenInstances() throws Exception {
+        otherLookupBean.suffix = "!";
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            assertThat(lookupBean.lookup("a")).isEqualTo("A");
+            assertThat(otherLookupBean.lookup("a")).isEqualTo("A!");
+            assertThat(otherLookupBean.lookup("a")).isEqualTo("A!");
+        });
+        assertThat(lookupBean.invocations).hasValue(1);
+        assertThat(otherLookupBean.invocations).hasValue(1);
+    }
+
+    @Test
+    void concurrentInvocationsAreComputedOnce() throws Exception {
+        final ExecutorService executor = extension.getContext().preserving(Executors.newFixedThreadPool(4));
+        lookupBean.release = new CountDownLatch(1);
+        try {
+            taskScopeEnabledBean.doInTaskScope(bean -> {
+                final List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(executor.submit(() -> lookupBean.lookup("a")));
+                }
+                assertThat(lookupBean.started.await(5, TimeUnit.SECONDS)).isTrue();
+                lookupBean.release.countDown();
+                for (final Future<String> future : futures) {
+                    assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("A");
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(lookupBean.invocations).hasValue(1);
+    }
+
+    @Test
+    void failureIsNotMemoized() {
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            assertThatThrownBy(() -> lookupBean.lookup(null)).isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> lookupBean.lookup(null)).isInstanceOf(IllegalArgumentException.class);
+        });
+        assertThat(lookupBean.invocations).hasValue(2);
+    }
+
+    @Test
+    void parametersModifiedByLaterInterceptorDoNotChangeKey() {
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            assertThat(lookupBean.normalizedLookup("a")).isEqualTo("A");
+            assertThat(lookupBean.normalizedLookup("a")).isEqualTo("A");
+        });
+        assertThat(lookupBean.invocations).hasValue(1);
+    }
+
+    @Override
+    protected Collection<Class<?>> getBeanClasses() {
+        return Arrays.asList(TaskScopeEnabledBean.class, LookupBean.class, NormalizingInterceptor.class);
+    }
+
+    @Dependent
+    static class LookupBean {
+
+        private final AtomicInteger invocations = new AtomicInteger(0);
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        private volatile String suffix = "";
+
+        @TaskCached
+        String lookup(final String key) throws InterruptedException {
+            invocations.incrementAndGet();
+            started.countDown();
+            release.await();
+            if (key == null) {
+                throw new IllegalArgumentException("key");
+            }
+            return key.toUpperCase() + suffix;
+        }
+
+        @TaskCached
+        @Normalized
+        String normalizedLookup(final String key) {
+            invocations.incrementAndGet();
+            return key;
+        }
+    }
+
+    @InterceptorBinding
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Normalized {
+    }
+
+    /**
+     * Modifies the parameters after the {@link TaskCachedInterceptor} has built its key.
+     */
+    @Normalized
+    @Interceptor
+    @Priority(Interceptor.Priority.LIBRARY_AFTER + 200)
+    static class NormalizingInterceptor {
+
+        @AroundInvoke
+        Object invoke(final InvocationContext invocation) throws Exception {
+            final Object[] parameters = invocation.getParameters();
+            parameters[0] = ((String) parameters[0]).toUpperCase();
+            invocation.setParameters(parameters);
+            return invocation.proceed();
+        }
+    }
+}
@@ -8,9 +8,12 @@ import org.junit.jupiter.api.*;
 import javax.enterprise.context.ContextNotActiveException;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -124,6 +127,43 @@ class TaskPreservingExecutorServiceTest extends AbstractTaskScopedExtensionTest
         assertThat(second).isEqualTo(first).isEqualTo(initial.get());
     }
 
+    @Test
+    void sameTaskIdWithSubmitAll(final BeanManager beanManager, final ExecutorService defaultService,
+                                 final TaskIdSettingCallable callable) throws Exception {
+        final TaskPreservingExecutorServiceDecorator decorator = new TaskPreservingExecutorServiceDecorator(beanManager,
+                defaultService);
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            final List<Future<TaskId>> futures = decorator.submitAll(Collections.nCopies(10, callable), 3);
+            assertThat(futures).hasSize(10);
+            for (final Future<TaskId> future : futures) {
+                assertThat(future.get()).isEqualTo(bean.taskIdManager.getId());
+            }
+        });
+    }
+
+    @Test
+    void submitAllKeepsTaskAliveWhenInitialExits(final BeanManager beanManager, final ExecutorService defaultService,
+                                                 final TaskIdSettingCallable callable) throws Exception {
+        final TaskPreservingExecutorServiceDecorator decorator = new TaskPreservingExecutorServiceDecorator(beanManager,
+                defaultService);
+        final Semaphore sema = new Semaphore(0);
+        final AtomicReference<TaskId> initial = new AtomicReference<>(null);
+        final AtomicReference<List<Future<TaskId>>> futures = new AtomicReference<>();
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            initial.set(bean.taskIdManager.getId());
+            futures.set(decorator.submitAll(Arrays.<Callable<TaskId>>asList(() -> {
+                sema.acquireUninterruptibly();
+                return callable.call();
+            }, callable, callable), 2));
+        });
+        sema.release();
+
+        for (final Future<TaskId> future : futures.get()) {
+            assertThat(future.get()).isEqualTo(initial.get());
+        }
+    }
+
     @Override
     protected Collection<Class<?>> getBeanClasses() {
         return Arrays.asList(TaskScopeEnabledBean.class, ExecutorServiceProducer.class, TaskIdStore.class,
@@ -0,0 +1,158 @@
+package io.github.lumnitzf.taskscoped;
+
+import io.github.lumnitzf.taskscoped.beans.TaskScopeEnabledBean;
+import org.junit.jupiter.api.*;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.Typed;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TaskPreservingPoolProducerTest extends AbstractTaskScopedExtensionTest {
+
+    @Inject
+    @TaskPreserving
+    private ThreadPoolExecutor threadPool;
+
+    @Inject
+    @TaskPreserving
+    private ScheduledThreadPoolExecutor scheduledPool;
+
+    @Inject
+    @TaskPreserving
+    private ForkJoinPool forkJoinPool;
+
+    @Inject
+    @TaskPreserving
+    private ExecutorService customPool;
+
+    @Inject
+    @TaskPreserving
+    private CustomThreadPool undecoratedPool;
+
+    @Inject
+    private TaskScopeEnabledBean taskScopeEnabledBean;
+
+    @Inject
+    private PoolProducer pools;
+
+    @Test
+    void sameTaskIdWithThreadPoolExecutor() throws Exception {
+        taskScopeEnabledBean.doInTaskScope(bean -> assertThat(
+                threadPool.submit(() -> bean.taskIdManager.getId()).get()).isEqualTo(bean.taskIdManager.getId()));
+    }
+
+    @Test
+    void threadPoolExecutorForwardsConfiguration() {
+        assertThat(threadPool).isNotSameAs(pools.getThreadPool());
+        assertThat(threadPool.getCorePoolSize()).isEqualTo(pools.getThreadPool().getCorePoolSize());
+        assertThat(threadPool.getQueue()).isSameAs(pools.getThreadPool().getQueue());
+    }
+
+    @Test
+    void sameTaskIdWithScheduledThreadPoolExecutor() throws Exception {
+        taskScopeEnabledBean.doInTaskScope(bean -> assertThat(
+                scheduledPool.schedule(() -> bean.taskIdManager.getId(), 10, TimeUnit.MILLISECONDS).get()).isEqualTo(
+                bean.taskIdManager.getId()));
+    }
+
+    @Test
+    void sameTaskIdWithForkJoinPool() throws Exception {
+        taskScopeEnabledBean.doInTaskScope(bean -> assertThat(
+                forkJoinPool.submit(() -> bean.taskIdManager.getId()).get()).isEqualTo(bean.taskIdManager.getId()));
+    }
+
+    @Test
+    void subtypeIsDecoratedAsSupportedSupertypeOfItsBeanTypes() throws Exception {
+        assertThat(customPool).isInstanceOf(ThreadPoolExecutor.class).isNotSameAs(pools.getCustomPool());
+        taskScopeEnabledBean.doInTaskScope(bean -> assertThat(
+                customPool.submit(() -> bean.taskIdManager.getId()).get()).isEqualTo(bean.taskIdManager.getId()));
+    }
+
+    @Test
+    void subtypeWithoutSupportedSupertypeIsNotDecorated() {
+        assertThat(undecoratedPool).isSameAs(pools.getUndecoratedPool());
+    }
+
+    @Override
+    protected Collection<Class<?>> getBeanClasses() {
+        return Arrays.asList(TaskScopeEnabledBean.class, PoolProducer.class);
+    }
+
+    @ApplicationScoped
+    static class PoolProducer {
+
+        private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+
+        private final ScheduledThreadPoolExecutor scheduledPool = new ScheduledThreadPoolExecutor(1);
+
+        private final ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+
+        private final CustomThreadPool customPool = new CustomThreadPool();
+
+        private final CustomThreadPool undecoratedPool = new CustomThreadPool();
+
+        @Produces
+        @TaskPreserving
+        @Typed(ThreadPoolExecutor.class)
+        ThreadPoolExecutor getThreadPool() {
+            return threadPool;
+        }
+
+        @Produces
+        @TaskPreserving
+        @Typed(ScheduledThreadPoolExecutor.class)
+        ScheduledThreadPoolExecutor getScheduledPool() {
+            return scheduledPool;
+        }
+
+        @Produces
+        @TaskPreserving
+        @Typed(ForkJoinPool.class)
+        ForkJoinPool getForkJoinPool() {
+            return forkJoinPool;
+        }
+
+        @Produces
+        @TaskPreserving
+        @Typed(ExecutorService.class)
+        CustomThreadPool getCustomPool() {
+            return customPool;
+        }
+
+        @Produces
+        @TaskPreserving
+        @Typed(CustomThreadPool.class)
+        CustomThreadPool getUndecoratedPool() {
+            return undecoratedPool;
+        }
+
+        @PreDestroy
+        void shutdown() {
+            threadPool.shutdownNow();
+            scheduledPool.shutdownNow();
+            forkJoinPool.shutdownNow();
+            customPool.shutdownNow();
+            undecoratedPool.shutdownNow();
+        }
+    }
+
+    static class CustomThreadPool extends ThreadPoolExecutor {
+
+        CustomThreadPool() {
+            super(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        }
+    }
+}
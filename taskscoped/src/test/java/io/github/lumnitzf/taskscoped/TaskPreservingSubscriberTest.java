@@ -0,0 +1,220 @@
+package io.github.lumnitzf.taskscoped;
+
+import io.github.lumnitzf.taskscoped.beans.TaskScopeEnabledBean;
+import org.junit.jupiter.api.*;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class TaskPreservingSubscriberTest extends AbstractTaskScopedExtensionTest {
+
+    @Inject
+    private TaskScopeEnabledBean taskScopeEnabledBean;
+
+    @Inject
+    private BeanManager beanManager;
+
+    private ExecutorService publishingService;
+
+    @BeforeEach
+    void createPublishingService() {
+        publishingService = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void shutdownPublishingService() {
+        publishingService.shutdownNow();
+    }
+
+    private TaskScopedContext getContext() {
+        return (TaskScopedContext) beanManager.getContext(TaskScoped.class);
+    }
+
+    @Test
+    void signalsAreDeliveredInSameTaskScope() throws Exception {
+        final TaskIdCollectingSubscriber subscriber = new TaskIdCollectingSubscriber();
+        final AtomicReference<TaskId> initial = new AtomicReference<>();
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            initial.set(bean.taskIdManager.getId());
+            new AsyncPublisher(publishingService, 3).subscribe(new TaskPreservingSubscriber<>(getContext(), subscriber));
+        });
+
+        subscriber.completed.get(5, TimeUnit.SECONDS);
+        assertThat(subscriber.taskIds).hasSize(3).containsOnly(initial.get());
+    }
+
+    @Test
+    void scopeIsKeptAliveUntilComplete() throws Exception {
+        final TaskIdCollectingSubscriber subscriber = new TaskIdCollectingSubscriber();
+        final AtomicReference<CompletionStage<Void>> destruction = new AtomicReference<>();
+        final AsyncPublisher publisher = new AsyncPublisher(publishingService, 1);
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            publisher.subscribe(new TaskPreservingSubscriber<>(getContext(), subscriber));
+            destruction.set(getContext().whenDestroyed(bean.taskIdManager.getId()));
+        });
+
+        subscriber.completed.get(5, TimeUnit.SECONDS);
+        destruction.get().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void scopeIsReleasedOnCancel() throws Exception {
+        final AtomicReference<Subscription> subscription = new AtomicReference<>();
+        final AtomicReference<CompletionStage<Void>> destruction = new AtomicReference<>();
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            new AsyncPublisher(publishingService, 1).subscribe(
+                    new TaskPreservingSubscriber<>(getContext(), new Subscriber<Object>() {
+                        @Override
+                        public void onSubscribe(final Subscription s) {
+                            subscription.set(s);
+                        }
+
+                        @Override
+                        public void onNext(final Object item) {
+                        }
+
+                        @Override
+                        public void onError(final Throwable throwable) {
+                        }
+
+                        @Override
+                        public void onComplete() {
+                        }
+                    }));
+            destruction.set(getContext().whenDestroyed(bean.taskIdManager.getId()));
+        });
+
+        assertThat(destruction.get().toCompletableFuture()).isNotDone();
+        subscription.get().cancel();
+        assertThat(destruction.get().toCompletableFuture()).isCompleted();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processorKeepsScopeAliveOnlyOnceSubscribed() throws Exception {
+        final AtomicReference<CompletionStage<Void>> destruction = new AtomicReference<>();
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            new TaskPreservingProcessor<Object, Object>(getContext(), mock(Processor.class));
+            destruction.set(getContext().whenDestroyed(bean.taskIdManager.getId()));
+        });
+
+        assertThat(destruction.get().toCompletableFuture()).isCompleted();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processorReleasesScopeOnComplete() throws Exception {
+        final AtomicReference<TaskPreservingProcessor<Object, Object>> processor = new AtomicReference<>();
+        final AtomicReference<CompletionStage<Void>> destruction = new AtomicReference<>();
+
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            processor.set(new TaskPreservingProcessor<Object, Object>(getContext(), mock(Processor.class)));
+            processor.get().onSubscribe(mock(Subscription.class));
+            destruction.set(getContext().whenDestroyed(bean.taskIdManager.getId()));
+        });
+
+        assertThat(destruction.get().toCompletableFuture()).isNotDone();
+        processor.get().onComplete();
+        assertThat(destruction.get().toCompletableFuture()).isCompleted();
+    }
+
+    @Test
+    void subscriberThrowsContextNotActiveExceptionOnNotActiveContext() {
+        assertThatThrownBy(() -> new TaskPreservingSubscriber<>(getContext(), mock(Subscriber.class))).isInstanceOf(
+                ContextNotActiveException.class);
+    }
+
+    @Override
+    protected Collection<Class<?>> getBeanClasses() {
+        return Collections.singleton(TaskScopeEnabledBean.class);
+    }
+
+    /**
+     * Publishes the numbers {@code 0} until {@code count - 1} on the provided {@link ExecutorService}.
+     */
+    private static class AsyncPublisher implements Publisher<Integer> {
+
+        private final ExecutorService executor;
+
+        private final int count;
+
+        AsyncPublisher(final ExecutorService executor, final int count) {
+            this.executor = executor;
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+
+                private int next = 0;
+
+                @Override
+                public void request(final long n) {
+                    executor.execute(() -> {
+                        for (long i = 0; i < n && next < count; i++) {
+                            subscriber.onNext(next++);
+                        }
+                        if (next == count) {
+                            subscriber.onComplete();
+                        }
+                    });
+                }
+
+                @Override
+                public void cancel() {
+                    next = count;
+                }
+            });
+        }
+    }
+
+    private static class TaskIdCollectingSubscriber implements Subscriber<Integer> {
+
+        private final List<TaskId> taskIds = new CopyOnWriteArrayList<>();
+
+        private final CompletableFuture<Void> completed = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final Integer item) {
+            taskIds.add(TaskIdHolder.get().orElse(null));
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            completed.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed.complete(null);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.lumnitzf.taskscoped;
+
+import io.github.lumnitzf.taskscoped.beans.TaskScopeEnabledBean;
+import org.junit.jupiter.api.*;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Destroyed;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TaskScopeEnabledInterceptorTest extends AbstractTaskScopedExtensionTest {
+
+    @Inject
+    private TaskScopeEnabledBean taskScopeEnabledBean;
+
+    @Inject
+    private LifecycleCounter counter;
+
+    @Inject
+    private TaskScopedExtension extension;
+
+    @Test
+    void unusedScopeIsNotCreated() {
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            // The scope is not used
+        });
+        assertThat(counter.initialized()).isEqualTo(0);
+        assertThat(counter.destroyed()).isEqualTo(0);
+    }
+
+    @Test
+    void usedScopeIsCreatedAndDestroyed() {
+        taskScopeEnabledBean.doInTaskScope(bean -> {
+            bean.taskIdManager.getId();
+            assertThat(counter.initialized()).isEqualTo(1);
+        });
+        assertThat(counter.destroyed()).isEqualTo(1);
+    }
+
+    @Test
+    void scopeCreatedInNestedInvocationIsKeptForOuterInvocation() {
+        final AtomicReference<TaskId> inner = new AtomicReference<>();
+        taskScopeEnabledBean.doInTaskScope(outer -> {
+            taskScopeEnabledBean.doInTaskScope(bean -> inner.set(bean.taskIdManager.getId()));
+            assertThat(counter.destroyed()).isEqualTo(0);
+            assertThat(outer.taskIdManager.getId()).isEqualTo(inner.get());
+        });
+        assertThat(counter.initialized()).isEqualTo(1);
+        assertThat(counter.destroyed()).isEqualTo(1);
+    }
+
+    @Test
+    void nestedInvocationUsesEnteredScope() {
+        taskScopeEnabledBean.doInTaskScope(outer -> {
+            final TaskId taskId = outer.taskIdManager.getId();
+            taskScopeEnabledBean.doInTaskScope(inner -> assertThat(inner.taskIdManager.getId()).isSameAs(taskId));
+            assertThat(counter.destroyed()).isEqualTo(0);
+            assertThat(outer.taskIdManager.getId()).isSameAs(taskId);
+        });
+        assertThat(counter.initialized()).isEqualTo(1);
+        assertThat(counter.destroyed()).isEqualTo(1);
+    }
+
+    @Test
+    void runInScopeUsesPendingScope() {
+        final TaskScopedContext context = extension.getContext();
+        final AtomicReference<TaskId> inner = new AtomicReference<>();
+        taskScopeEnabledBean.doInTaskScope(outer -> {
+            context.runInScope(() -> inner.set(outer.taskIdManager.getId()));
+            assertThat(counter.destroyed()).isEqualTo(0);
+            assertThat(outer.taskIdManager.getId()).isSameAs(inner.get());
+        });
+        assertThat(counter.initialized()).isEqualTo(1);
+        assertThat(counter.destroyed()).isEqualTo(1);
+        assertThat(context.isEntered()).isFalse();
+    }
+
+    @Test
+    void scopeIsKeptUntilReturnedStageCompletes() {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final CompletableFuture<String> returned = taskScopeEnabledBean.callInTaskScope(bean -> {
+            bean.taskIdManager.getId();
+            return result;
+        });
+        assertThat(counter.initialized()).isEqualTo(1);
+        assertThat(counter.destroyed()).isEqualTo(0);
+
+        result.complete("Hello World!");
+        assertThat(counter.destroyed()).isEqualTo(1);
+        assertThat(returned).isCompletedWithValue("Hello World!");
+    }
+
+    @Test
+    void scopeIsDestroyedForCompletedStage() {
+        taskScopeEnabledBean.callInTaskScope(bean -> {
+            bean.taskIdManager.getId();
+            return CompletableFuture.completedFuture("Hello World!");
+        });
+        assertThat(counter.destroyed()).isEqualTo(1);
+    }
+
+    @Override
+    protected Collection<Class<?>> getBeanClasses() {
+        return Arrays.asList(TaskScopeEnabledBean.class, LifecycleCounter.class);
+    }
+
+    @ApplicationScoped
+    static class LifecycleCounter {
+
+        private final AtomicInteger initialized = new AtomicInteger(0);
+
+        private final AtomicInteger destroyed = new AtomicInteger(0);
+
+        void onInitialized(@Observes @Initialized(TaskScoped.class) final TaskId taskId) {
+            initialized.incrementAndGet();
+        }
+
+        void onDestroyed(@Observes @Destroyed(TaskScoped.class) final TaskId taskId) {
+            destroyed.incrementAndGet();
+        }
+
+        // The fields must be read via methods, as the client proxy does not hold them
+        int initialized() {
+            return initialized.get();
+        }
+
+        int destroyed() {
+            return destroyed.get();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.assertj.core.api.Assumptions.*;
+
+/**
+ * Soak test driving {@link TaskScopeEnabled} entry points with a task preserving fan-out at a fixed arrival rate.
+ * <p>
+ * The requests are issued open-loop: each request has an intended start time according to the rate, and its latency
+ * is measured from that time instead of from its actual start. A stalled system therefore shows up in the
+ * percentiles, instead of silently lowering the rate (coordinated omission). After the run, the live TaskScopes and
+ * the used heap must return to their baseline.
+ * </p>
+ * <p>
+ * Only runs if {@code taskscoped.soak.duration} is set, e.g. {@code mvn test -Dtest=TaskScopeSoakTest
+ * -Dtaskscoped.soak.duration=PT4H}. Further properties are {@code taskscoped.soak.rate} (requests per second),
+ * {@code taskscoped.soak.fanOut} (tasks per request) and {@code taskscoped.soak.heapTolerance} (bytes).
+ * </p>
+ */
+class TaskScopeSoakTest extends AbstractTaskScopedExtensionTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScopeSoakTest.class);
+
+    private static final String DURATION_PROPERTY = "taskscoped.soak.duration";
+
+    @Inject
+    private TaskScopedExtension extension;
+
+    @Inject
+    private SoakEntryPoint entryPoint;
+
+    @Test
+    void latencyAndLiveScopesAreStableUnderSustainedLoad() throws Exception {
+        final String duration = System.getProperty(DURATION_PROPERTY);
+        assumeThat(duration).as(DURATION_PROPERTY).isNotNull();
+        final Duration runtime = Duration.parse(duration);
+        final long rate = Long.getLong("taskscoped.soak.rate", 1000);
+        final int fanOut = Integer.getInteger("taskscoped.soak.fanOut", 8);
+        final long heapTolerance = Long.getLong("taskscoped.soak.heapTolerance", 32 * 1024 * 1024);
+
+        // Warm up, so that the baseline contains all lazily created infrastructure
+        drive(Duration.ofSeconds(10), rate, fanOut, new LatencyHistogram());
+        final long baselineHeap = usedHeapAfterGc();
+        final int baselineScopes = extension.getContext().inspect().size();
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        drive(runtime, rate, fanOut, histogram);
+        LOG.info("Latency of {} requests per second with fan-out {}: {}", rate, fanOut, histogram);
+
+        assertThat(histogram.getTotalCount()).isPositive();
+        assertThat(extension.getContext().inspect()).hasSize(baselineScopes);
+        assertThat(usedHeapAfterGc()).isLessThanOrEqualTo(baselineHeap + heapTolerance);
+    }
+
+    /**
+     * Issues requests at a fixed rate for {@code duration}, and waits until all of them have completed.
+     */
+    private void drive(final Duration duration, final long rate, final int fanOut,
+                       final LatencyHistogram histogram) throws Exception {
+        final ExecutorService clients = Executors.newCachedThreadPool();
+        final AtomicLong failures = new AtomicLong();
+        try {
+            final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            final long start = System.nanoTime();
+            final long end = start + duration.toNanos();
+            for (long intended = start; intended < end; intended += interval) {
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                final long intendedStart = intended;
+                clients.execute(() -> {
+                    try {
+                        entryPoint.handle(fanOut);
+                    } catch (final Exception | AssertionError e) {
+                        LOG.warn("Request failed", e);
+                        failures.incrementAndGet();
+                    }
+                    histogram.record(System.nanoTime() - intendedStart);
+                });
+            }
+        } finally {
+            clients.shutdown();
+            assertThat(clients.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        }
+        assertThat(failures).hasValue(0);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    protected Collection<Class<?>> getBeanClasses() {
+        return Arrays.asList(SoakEntryPoint.class, SoakExecutorProducer.class, RequestState.class);
+    }
+
+    @Dependent
+    @TaskScopeEnabled
+    static class SoakEntryPoint {
+
+        @Inject
+        @TaskPreserving
+        private ExecutorService executor;
+
+        @Inject
+        private RequestState state;
+
+        void handle(final int fanOut) throws Exception {
+            final List<Future<?>> futures = new ArrayList<>(fanOut);
+            for (int i = 0; i < fanOut; i++) {
+                futures.add(executor.submit(state::increment));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            assertThat(state.get()).isEqualTo(fanOut);
+        }
+    }
+
+    @TaskScoped
+    static class RequestState {
+
+        private final AtomicLong counter = new AtomicLong();
+
+        void increment() {
+            counter.incrementAndGet();
+        }
+
+        long get() {
+            return counter.get();
+        }
+    }
+
+    @ApplicationScoped
+    static class SoakExecutorProducer {
+
+        @Produces
+        @ApplicationScoped
+        @TaskPreserving
+        ExecutorService getExecutorService() {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        void destroyExecutorService(@Disposes @TaskPreserving final ExecutorService service) {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package io.github.lumnitzf.taskscoped;
+
+import org.junit.jupiter.api.*;
+import org.mockito.InOrder;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.BeanManager;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.assertj.core.api.Assumptions.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+class TaskScopedContextTest {
+
+    private BeanManager beanManagerMock;
+
+    private TaskScopedContext testee;
+
+    @BeforeEach
+    void createMock() {
+        beanManagerMock = mock(BeanManager.class);
+    }
+
+    @AfterEach
+    void reset() {
+        // Reset the ThreadLocal
+        TaskIdHolder.remove();
+    }
+
+    private void assertDestroyedEventFired(final TaskId taskId) {
+        Objects.requireNonNull(taskId);
+        inOrder(beanManagerMock).verify(beanManagerMock).fireEvent(same(taskId),
+                eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+    }
+
+    private void assertInitializedEventFired(final TaskId taskId) {
+        Objects.requireNonNull(taskId);
+        inOrder(beanManagerMock).verify(beanManagerMock).fireEvent(same(taskId),
+                eq(new TaskScopedContext.InitializedLiteral(TaskScoped.class)));
+    }
+
+    private void assertAfterTaskEnterEventFired(final TaskId taskId) {
+        Objects.requireNonNull(taskId);
+        inOrder(beanManagerMock).verify(beanManagerMock).fireEvent(same(taskId),
+                eq(AfterTaskEnter.Literal.INSTANCE));
+    }
+
+    private void assertBeforeTaskExitEventFired(final TaskId taskId) {
+        Objects.requireNonNull(taskId);
+        inOrder(beanManagerMock).verify(beanManagerMock).fireEvent(same(taskId),
+                eq(BeforeTaskExit.Literal.INSTANCE));
+    }
+
+    private void assertScopeNotActive() {
+        assertThat(testee.isActive()).isFalse();
+    }
+
+    private void assertScopeActive() {
+        assertThat(testee.isActive()).isTrue();
+    }
+
+    @Nested
+    class WhenNew {
+
+        @BeforeEach
+        void createNewContext() {
+            testee = new TaskScopedContext(beanManagerMock);
+        }
+
+        @Test
+        void scopeNotActive() {
+            assertScopeNotActive();
+        }
+
+        @Test
+        void scopeIsTaskScoped() {
+            assertThat(testee.getScope()).isEqualTo(TaskScoped.class);
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void recyclableInstanceIsReusedByNextScope() {
+            final Contextual<RecyclableBean> contextual = mock(Contextual.class);
+            when(contextual.create(any())).thenAnswer(invocation -> new RecyclableBean());
+            final RecyclableBean[] first = new RecyclableBean[1];
+            testee.runInScope(() -> {
+                first[0] = testee.get(contextual, mock(CreationalContext.class));
+                first[0].value = "Hello World!";
+            });
+            assertThat(first[0].value).isNull();
+
+            testee.runInScope(() -> assertThat(testee.get(contextual, mock(CreationalContext.class)))
+                    .isSameAs(first[0]));
+            verify(contextual, times(1)).create(any());
+            verify(contextual, never()).destroy(any(), any());
+
+            testee.clearRecycled();
+            verify(contextual).destroy(same(first[0]), any());
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void recycledInstanceIsDestroyedWhenCapacityChanges() {
+            final Contextual<RecyclableBean> contextual = mock(Contextual.class);
+            when(contextual.create(any())).thenAnswer(invocation -> new RecyclableBean());
+            final RecyclableBean[] first = new RecyclableBean[1];
+            testee.runInScope(() -> first[0] = testee.get(contextual, mock(CreationalContext.class)));
+
+            testee.setRecyclingCapacity(1);
+            verify(contextual).destroy(same(first[0]), any());
+            testee.runInScope(() -> assertThat(testee.get(contextual, mock(CreationalContext.class)))
+                    .isNotSameAs(first[0]));
+        }
+
+        @Nested
+        class WithSpilling {
+
+            private Contextual<SpillableBean> contextual;
+
+            private SpillableBean bean;
+
+            private TaskId taskId;
+
+            private Object registered;
+
+            @BeforeEach
+            @SuppressWarnings("unchecked")
+            void createIdleScope() throws IOException {
+                final Path file = Files.createTempFile("taskscoped", ".spill");
+                testee.enableSpilling(file, 1 << 16, 0, TimeUnit.MILLISECONDS);
+                contextual = mock(Contextual.class);
+                bean = new SpillableBean("Hello World!");
+                when(contextual.create(any())).thenReturn(bean);
+                taskId = TaskId.create();
+                registered = new Object();
+                testee.register(taskId, registered);
+                testee.enter(taskId);
+                assumeThat(testee.get(contextual, mock(CreationalContext.class))).isSameAs(bean);
+                SpillableBean.RESTORED.set(0);
+                testee.exit(null);
+            }
+
+            @AfterEach
+            void disableSpilling() {
+                testee.disableSpilling();
+            }
+
+            @Test
+            void instanceIsRestoredOnEnter() throws Exception {
+                awaitSpilled();
+                testee.enter(taskId);
+                final SpillableBean restored = testee.get(contextual);
+                assertThat(restored).isNotSameAs(bean);
+                assertThat(restored.value).isEqualTo(bean.value);
+                assertThat(restored.cached).isNull();
+                testee.exit(null);
+            }
+
+            @Test
+            void instanceIsRestoredWhenDisabled() throws Exception {
+                awaitSpilled();
+                final int verified = SpillableBean.RESTORED.get();
+                testee.disableSpilling();
+                assertThat(SpillableBean.RESTORED.get()).isEqualTo(verified + 1);
+                testee.enter(taskId);
+                assertThat(testee.get(contextual).value).isEqualTo(bean.value);
+                testee.exit(null);
+            }
+
+            @Test
+            void spilledInstanceIsDestroyed() throws Exception {
+                awaitSpilled();
+                testee.unregister(taskId, registered);
+                assertDestroyedEventFired(taskId);
+                verify(contextual).destroy(any(), any());
+            }
+
+            private void awaitSpilled() throws InterruptedException {
+                // Spilled instances are deserialized once to verify they can be restored
+                for (int i = 0; i < 500 && SpillableBean.RESTORED.get() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                assumeThat(SpillableBean.RESTORED.get()).isPositive();
+            }
+        }
+
+        @Nested
+        class WithRemote {
+
+            private BeanManager remoteBeanManagerMock;
+
+            private TaskScopedContext remote;
+
+            /**
+             * In-process stand-in for the transport between both processes.
+             */
+            private BlockingQueue<ByteBuffer> transport;
+
+            private TaskId taskId;
+
+            @BeforeEach
+            void exportAndExit() {
+                remoteBeanManagerMock = mock(BeanManager.class);
+                remote = new TaskScopedContext(remoteBeanManagerMock);
+                transport = new LinkedBlockingQueue<>();
+                taskId = TaskId.create();
+                testee.enter(taskId);
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(TaskId.BYTES);
+                testee.export(taskId, buffer);
+                buffer.flip();
+                transport.add(buffer);
+                testee.exit(null);
+            }
+
+            @Test
+            void exportedScopeNotDestroyed() {
+                verify(beanManagerMock, never()).fireEvent(same(taskId),
+                        eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+            }
+
+            @Test
+            void attachedTaskIdHasSameValue() throws Exception {
+                final TaskId attached = remote.attach(transport.take());
+                assertThat(attached).isNotSameAs(taskId).isEqualTo(taskId);
+            }
+
+            @Test
+            void attachingTwiceReturnsSameInstance() throws Exception {
+                final ByteBuffer buffer = transport.take();
+                final TaskId first = remote.attach(buffer.duplicate());
+                final TaskId second = remote.attach(buffer);
+                assertThat(second).isSameAs(first);
+            }
+
+            @Test
+            void exportedScopeDestroyedAfterRemoteRelease() throws Exception {
+                final Thread receiver = new Thread(() -> {
+                    try {
+                        final TaskId attached = remote.attach(transport.take());
+                        remote.enter(attached);
+                        remote.exit(null);
+                        remote.whenDestroyed(attached).thenRun(() -> {
+                            final ByteBuffer reply = ByteBuffer.allocate(TaskId.BYTES);
+                            attached.writeTo(reply);
+                            reply.flip();
+                            transport.add(reply);
+                        });
+                        remote.detach(attached);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                receiver.start();
+                receiver.join();
+
+                verify(remoteBeanManagerMock).fireEvent(eq(taskId),
+                        eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+                testee.release(transport.take());
+                assertDestroyedEventFired(taskId);
+            }
+
+            @Test
+            void releaseOfUnknownTaskThrowsException() {
+                final ByteBuffer buffer = ByteBuffer.allocate(TaskId.BYTES);
+                TaskId.create().writeTo(buffer);
+                buffer.flip();
+                assertThatThrownBy(() -> testee.release(buffer)).isInstanceOf(IllegalStateException.class);
+            }
+        }
+
+        @Nested
+        class WithWorkerRetention {
+
+            private TaskId taskId;
+
+            private Object first;
+
+            private Object second;
+
+            @BeforeEach
+            void retainAfterFirst() {
+                testee.setWorkerRetention(true);
+                taskId = TaskId.create();
+                first = new Object();
+                second = new Object();
+                testee.register(taskId, first);
+                testee.register(taskId, second);
+                testee.enter(taskId);
+                testee.unregister(taskId, first);
+                testee.exitWorker(null);
+            }
+
+            @AfterEach
+            void disableWorkerRetention() {
+                testee.setWorkerRetention(false);
+            }
+
+            @Test
+            void scopeNotActive() {
+                assertScopeNotActive();
+            }
+
+            @Test
+            void destroyedEventNotFired() {
+                verify(beanManagerMock, never()).fireEvent(same(taskId),
+                        eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+            }
+
+            @Test
+            void beforeTaskExitEventFired() {
+                assertBeforeTaskExitEventFired(taskId);
+            }
+
+            @Test
+            void sameTaskIsResumedWithoutInitialization() {
+                testee.enter(taskId);
+                testee.unregister(taskId, second);
+                testee.exitWorker(null);
+                verify(beanManagerMock, times(1)).fireEvent(same(taskId),
+                        eq(new TaskScopedContext.InitializedLiteral(TaskScoped.class)));
+                assertDestroyedEventFired(taskId);
+            }
+
+            @Test
+            void destroyedOnLastUnregisterWhileRetained() {
+                testee.unregister(taskId, second);
+                assertDestroyedEventFired(taskId);
+            }
+
+            @Test
+            void destroyedWhenOtherThreadFinishes() throws Exception {
+                final Thread other = new Thread(() -> {
+                    testee.enter(taskId);
+                    testee.unregister(taskId, second);
+                    testee.exitWorker(null);
+                });
+                other.start();
+                other.join();
+                assertDestroyedEventFired(taskId);
+            }
+
+            @Test
+            void releasedAfterTimeoutWithoutFurtherTask() throws Exception {
+                testee.setWorkerRetention(10, TimeUnit.MILLISECONDS);
+                testee.enter(taskId);
+                testee.exitWorker(null);
+                for (int i = 0; i < 500 && runningCount() > 0; i++) {
+                    Thread.sleep(10);
+                }
+                assertThat(runningCount()).isZero();
+                // Still registered, so not yet destroyed
+                verify(beanManagerMock, never()).fireEvent(same(taskId),
+                        eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+            }
+
+            private int runningCount() {
+                return testee.inspect().stream().filter(info -> info.getTaskId() == taskId)
+                        .mapToInt(TaskScopeInfo::getRunningCount).sum();
+            }
+
+            @Test
+            void releasedOnDifferentTask() {
+                final TaskId otherTaskId = TaskId.create();
+                testee.enter(otherTaskId);
+                testee.exitWorker(null);
+                assertDestroyedEventFired(otherTaskId);
+                // Still registered, so not yet destroyed
+                verify(beanManagerMock, never()).fireEvent(same(taskId),
+                        eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+                testee.unregister(taskId, second);
+                assertDestroyedEventFired(taskId);
+            }
+        }
+
+        @Nested
+        class WithTaskId {
+            private TaskId taskId;
+
+            @BeforeEach
+            void createTaskId() {
+                taskId = TaskId.create();
+            }
+
+            @Test
+            void unknownScopeIsAlreadyDestroyed() throws Exception {
+                assertThat(testee.whenDestroyed(taskId).toCompletableFuture()).isCompleted();
+                assertThat(testee.awaitQuiescence(taskId, 0, TimeUnit.MILLISECONDS)).isTrue();
+            }
+
+            @Nested
+            class AfterEnter {
+
+                @BeforeEach
+                void enter() {
+                    assumeThat(testee.isActive()).isFalse();
+                    testee.enter(taskId);
+                }
+
+                @Test
+                void scopeActive() {
+                    assertScopeActive();
+                }
+
+                @Test
+                void initializedEventFired() {
+                    assertInitializedEventFired(taskId);
+                }
+
+                @Test
+                void afterTaskEnterEventFired() {
+                    assertAfterTaskEnterEventFired(taskId);
+                }
+
+                @Test
+                void initializedEventFiredBeforeAfterTaskEnterEvent() {
+                    final InOrder order = inOrder(beanManagerMock);
+                    order.verify(beanManagerMock).fireEvent(same(taskId),
+                            eq(new TaskScopedContext.InitializedLiteral(TaskScoped.class)));
+                    order.verify(beanManagerMock).fireEvent(same(taskId),
+                            eq(AfterTaskEnter.Literal.INSTANCE));
+                }
+
+                @Test
+                void notDestroyed() {
+                    assertThat(testee.whenDestroyed(taskId).toCompletableFuture()).isNotDone();
+                }
+
+                @Test
+                void awaitQuiescenceTimesOut() throws Exception {
+                    assertThat(testee.awaitQuiescence(taskId, 10, TimeUnit.MILLISECONDS)).isFalse();
+                }
+
+                @Nested
+                class AfterExit {
+
+                    private CompletionStage<Void> destruction;
+
+                    @BeforeEach
+                    void exit() {
+                        assumeThat(testee.isActive()).isTrue();
+                        destruction = testee.whenDestroyed(taskId);
+                        testee.exit(null);
+                    }
+
+                    @Test
+                    void destructionCompleted() {
+                        assertThat(destruction.toCompletableFuture()).isCompleted();
+                    }
+
+                    @Test
+                    void scopeNotActive() {
+                        assertScopeNotActive();
+                    }
+
+                    @Test
+                    void destroyedEventFired() {
+                        assertDestroyedEventFired(taskId);
+                    }
+
+                    @Test
+                    void beforeTaskExitEventFired() {
+                        assertBeforeTaskExitEventFired(taskId);
+                    }
+
+                    @Test
+                    void beforeExitEventFiredBeforeDestroyedEvent() {
+                        final InOrder order = inOrder(beanManagerMock);
+                        order.verify(beanManagerMock).fireEvent(same(taskId),
+                                eq(BeforeTaskExit.Literal.INSTANCE));
+                        order.verify(beanManagerMock).fireEvent(same(taskId),
+                                eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+                    }
+                }
+            }
+
+            @Nested
+            class WithRegistered {
+                private Object registered;
+
+                @BeforeEach
+                void register() {
+                    assumeThat(testee.isActive()).isFalse();
+                    registered = new Object();
+                    testee.register(taskId, registered);
+                }
+
+                @Test
+                void notActive() {
+                    assertScopeNotActive();
+                }
+
+                @Test
+                void noEvents() {
+                    verifyZeroInteractions(beanManagerMock);
+                }
+
+                @Test
+                void notDestroyed() {
+                    assertThat(testee.whenDestroyed(taskId).toCompletableFuture()).isNotDone();
+                }
+
+                @Test
+                void finishedAfterUnregisterWithoutEnter() {
+                    final CompletionStage<Void> destruction = testee.whenDestroyed(taskId);
+                    testee.unregister(taskId, registered);
+                    assertThat(destruction.toCompletableFuture()).isCompleted();
+                    verifyZeroInteractions(beanManagerMock);
+                }
+
+                @Nested
+                class AfterEnter {
+
+                    @BeforeEach
+                    void enter() {
+                        assumeThat(testee.isActive()).isFalse();
+                        testee.enter(taskId);
+                    }
+
+                    @Test
+                    void scopeActive() {
+                        assertScopeActive();
+                    }
+
+                    @Test
+                    void initializedEventFired() {
+                        assertInitializedEventFired(taskId);
+                    }
+
+                    @Nested
+                    class AfterExit {
+
+
+                        @BeforeEach
+                        void exit() {
+                            assumeThat(testee.isActive()).isTrue();
+                            testee.exit(null);
+                        }
+
+                        @Test
+                        void scopeNotActive() {
+                            assertScopeNotActive();
+                        }
+
+                        @Test
+                        void destroyedEventNotFired() {
+                            inOrder(beanManagerMock).verify(beanManagerMock, never()).fireEvent(same(taskId),
+                                    eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+                        }
+
+                        @Test
+                        void notDestroyed() {
+                            assertThat(testee.whenDestroyed(taskId).toCompletableFuture()).isNotDone();
+                        }
+
+                        @Nested
+                        class AfterUnregister {
+
+                            private CompletionStage<Void> destruction;
+
+                            @BeforeEach
+                            void unregister() {
+                                destruction = testee.whenDestroyed(taskId);
+                                testee.unregister(taskId, registered);
+                            }
+
+                            @Test
+                            void destructionCompleted() {
+                                assertThat(destruction.toCompletableFuture()).isCompleted();
+                            }
+
+                            @Test
+                            void scopeNotActive() {
+                                assertScopeNotActive();
+                            }
+
+                            @Test
+                            void destroyedEventFired() {
+                                assertDestroyedEventFired(taskId);
+                            }
+                        }
+                    }
+
+
+                    @Nested
+                    class AfterUnregister {
+
+                        @BeforeEach
+                        void unregister() {
+                            testee.unregister(taskId, registered);
+                        }
+
+                        @Test
+                        void scopeActive() {
+                            assertScopeActive();
+                        }
+
+                        @Test
+                        void destroyedEventNotFired() {
+                            inOrder(beanManagerMock).verify(beanManagerMock, never()).fireEvent(same(taskId),
+                                    eq(new TaskScopedContext.DestroyedLiteral(TaskScoped.class)));
+                        }
+
+                        @Nested
+                        class AfterExit {
+                            @BeforeEach
+                            void exit() {
+                                assumeThat(testee.isActive()).isTrue();
+                                testee.exit(null);
+                            }
+
+                            @Test
+                            void scopeNotActive() {
+                                assertScopeNotActive();
+                            }
+
+                            @Test
+                            void destroyedEventFired() {
+                                assertDestroyedEventFired(taskId);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static class SpillableBean implements Spillable {
+
+        static final AtomicInteger RESTORED = new AtomicInteger(0);
+
+        private final String value;
+
+        private transient String cached;
+
+        SpillableBean(final String value) {
+            this.value = value;
+            this.cached = value;
+        }
+
+        private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            RESTORED.incrementAndGet();
+        }
+    }
+
+    static class RecyclableBean implements Recyclable {
+
+        private String value;
+
+        @Override
+        public void recycle() {
+            value = null;
+        }
+    }
+}
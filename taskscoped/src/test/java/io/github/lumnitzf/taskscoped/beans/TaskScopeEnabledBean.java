@@ -6,6 +6,7 @@ import io.github.lumnitzf.taskscoped.TaskScopeEnabled;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
+import java.util.function.Function;
 
 @Dependent
 @TaskScopeEnabled
@@ -21,6 +22,10 @@ public class TaskScopeEnabledBean {
         consumer.accept(this);
     }
 
+    public <T> T callInTaskScope(final Function<TaskScopeEnabledBean, T> function) {
+        return function.apply(this);
+    }
+
     public interface ThrowingConsumer<T, E extends Throwable> {
 
         void accept(T t) throws E;